@@ -0,0 +1,71 @@
+package com.fawry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Pages the benchmarks run on: a generated back-office page of about the requested size, or a saved
+ * page from the corpus directory given with bench.corpus (one .html file per page). No corpus ships
+ * with the project, so saved pages need both bench.corpus and a -p page=... parameter.
+ */
+final class BenchmarkPages {
+
+    private BenchmarkPages() {
+    }
+
+    /**
+     * HTML of the page: "generated-N" for a generated page with N table rows, or a corpus file name
+     */
+    static String load(String page) {
+        if (page.startsWith("generated-")) {
+            return generate(Integer.parseInt(page.substring("generated-".length())));
+        }
+        String directory = System.getProperty("bench.corpus", "");
+        if (directory.isBlank()) {
+            throw new IllegalStateException("Page " + page + " is not generated: set -Dbench.corpus to the directory of saved pages");
+        }
+        Path corpus = Paths.get(directory);
+        try {
+            return Files.readString(corpus.resolve(page));
+        } catch (IOException e) {
+            throw new UncheckedIOException("No page " + page + " in " + corpus.toAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * A page shaped like the ones the suite heals on: navigation, a login-style form, a large
+     * data table with row actions, plus the scripts and styles a real page carries
+     */
+    static String generate(int rows) {
+        StringBuilder html = new StringBuilder(rows * 400 + 4096);
+        html.append("<!DOCTYPE html><html><head><title>Orders</title>")
+                .append("<style>.btn{padding:4px}.row-odd{background:#eee}</style>")
+                .append("<script>window.appConfig = {\"build\": \"2024.1\", \"features\": [\"a\", \"b\"]};</script>")
+                .append("</head><body><header class=\"app-header\"><nav class=\"navbar\"><ul class=\"nav\">");
+        for (String item : new String[]{"Dashboard", "Orders", "Customers", "Reports", "Settings"}) {
+            html.append("<li class=\"nav-item\"><a class=\"nav-link\" href=\"/").append(item.toLowerCase())
+                    .append("\">").append(item).append("</a></li>");
+        }
+        html.append("</ul></nav></header><main id=\"content\"><form id=\"login-form\" class=\"form\">")
+                .append("<label for=\"username\">Username</label><input id=\"username\" name=\"username\" type=\"text\" placeholder=\"Username\">")
+                .append("<label for=\"password\">Password</label><input id=\"password\" name=\"password\" type=\"password\">")
+                .append("<button id=\"submitBtn\" class=\"btn btn-primary-v2\" type=\"submit\"><span>Sign In</span></button>")
+                .append("</form><table class=\"table orders\"><thead><tr><th>Order</th><th>Customer</th><th>Status</th><th></th></tr></thead><tbody>");
+        for (int i = 0; i < rows; i++) {
+            html.append("<tr class=\"").append(i % 2 == 0 ? "row-even" : "row-odd").append("\" data-id=\"").append(10_000 + i).append("\">")
+                    .append("<td class=\"cell\">#").append(10_000 + i).append("</td>")
+                    .append("<td class=\"cell\"><a href=\"/customers/").append(i % 97).append("\">Customer ").append(i % 97).append("</a></td>")
+                    .append("<td class=\"cell\"><span class=\"badge status-").append(i % 3).append("\">")
+                    .append(i % 3 == 0 ? "Open" : i % 3 == 1 ? "Shipped" : "Closed").append("</span></td>")
+                    .append("<td class=\"actions\"><button class=\"btn btn-edit\" type=\"button\">Edit</button>")
+                    .append("<button class=\"btn btn-delete\" type=\"button\" aria-label=\"Delete order ").append(10_000 + i)
+                    .append("\">Delete</button></td></tr>");
+        }
+        html.append("</tbody></table></main><footer class=\"footer\"><p>© Example</p></footer>")
+                .append("<script src=\"/static/app.js\"></script></body></html>");
+        return html.toString();
+    }
+}
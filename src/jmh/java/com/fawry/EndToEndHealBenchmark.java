@@ -0,0 +1,98 @@
+package com.fawry;
+
+import okhttp3.*;
+import okio.Buffer;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Model heals end to end, from the captured snapshot to the parsed candidates. The chat completions
+ * endpoint is answered by an OkHttp interceptor inside the client, with no socket and no server, so
+ * what is measured is the library's own cost around a model call: distilling, prompting, building
+ * and reading the request and answer parsing. {@link #stubCall()} is one call through the client
+ * and the interceptor alone; subtract it to see the rest.
+ * <p>
+ * Run with: mvn -Pbench test-compile exec:exec -Djmh.args="EndToEndHeal"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dhealing.log.level=WARNING", "-Dhealing.metrics.enabled=false",
+        "-Dhealing.ai.cache.mode=passthrough", "-Dhealing.ai.stream=false"})
+public class EndToEndHealBenchmark {
+    private static final List<String> BROKEN_LOCATORS = List.of(
+            "By.id: usrname", "By.id: pasword", "By.xpath: //button[text()='Log In']",
+            "By.cssSelector: .btn-primary-v3", "By.name: remember");
+    private static final String ANSWER = "{\\\"candidates\\\": [{\\\"type\\\": \\\"id\\\", \\\"value\\\": \\\"username\\\"},"
+            + "{\\\"type\\\": \\\"xpath\\\", \\\"value\\\": \\\"//input[@name='username']\\\"}]}";
+    private static final String BATCH_ANSWER = "{\\\"results\\\": [{\\\"index\\\": 1, \\\"candidates\\\": "
+            + "[{\\\"type\\\": \\\"id\\\", \\\"value\\\": \\\"username\\\"}]}]}";
+    // Never connected to, the interceptor answers first
+    private static final String URL = "http://127.0.0.1:9/v1/chat/completions";
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    @Param({"generated-100", "generated-1000"})
+    public String page;
+
+    private Document document;
+    private OkHttpClient client;
+    private AIIntegrationService service;
+    private String baselineRequest;
+
+    @Setup
+    public void setUp() {
+        // Before the first service is created, which reads the endpoint pool settings
+        System.setProperty("healing.ai.url", URL);
+        client = new OkHttpClient.Builder().addInterceptor(EndToEndHealBenchmark::answer).build();
+        document = Jsoup.parse(BenchmarkPages.load(page));
+        service = new AIIntegrationService(client);
+        // About the size of a real request on this page
+        baselineRequest = "{\"messages\": [{\"role\": \"user\", \"content\": \"" + "x".repeat(document.html().length() / 4) + "\"}]}";
+    }
+
+    private static Response answer(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        Buffer sent = new Buffer();
+        if (request.body() != null) {
+            request.body().writeTo(sent);
+        }
+        String content = sent.readUtf8().contains("\\\"results\\\"") ? BATCH_ANSWER : ANSWER;
+        String body = "{\"choices\": [{\"message\": {\"role\": \"assistant\", \"content\": \"" + content + "\"}}]}";
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(body, JSON))
+                .build();
+    }
+
+    /**
+     * Baseline: one call through the client and the interceptor, nothing of the library
+     */
+    @Benchmark
+    public String stubCall() throws IOException {
+        Request request = new Request.Builder().url(URL).post(RequestBody.create(baselineRequest, JSON)).build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.body().string();
+        }
+    }
+
+    @Benchmark
+    public List<org.openqa.selenium.By> modelHeal() {
+        return service.analyzeAndGenerateLocators(Locators.clean(BROKEN_LOCATORS.get(0)), document, false);
+    }
+
+    @Benchmark
+    public Map<String, List<org.openqa.selenium.By>> batchModelHeal() {
+        return service.analyzeAndGenerateLocators(BROKEN_LOCATORS, document);
+    }
+}
@@ -0,0 +1,91 @@
+package com.fawry;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU-bound steps of a heal, each on its own, on pages of growing size: parsing the snapshot,
+ * indexing it, serializing and distilling it, building the prompt, reading the answer, parsing
+ * the broken locator and the local heal that runs before any model call.
+ * <p>
+ * Run with: mvn -Pbench test-compile exec:exec -Djmh.args="HealingPipeline"
+ * (add -Dbench.corpus=dir and -p page=saved.html to use saved pages instead of generated ones).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dhealing.log.level=WARNING", "-Dhealing.metrics.enabled=false"})
+public class HealingPipelineBenchmark {
+    private static final String BROKEN_LOCATOR = "By.id: usrname";
+    private static final String ANSWER = "{\"candidates\": ["
+            + "{\"type\": \"id\", \"value\": \"username\"},"
+            + "{\"type\": \"xpath\", \"value\": \"//input[@name='username']\"},"
+            + "{\"type\": \"css\", \"value\": \"form#login-form input[type='text']\"}]}";
+
+    @Param({"generated-100", "generated-1000", "generated-5000"})
+    public String page;
+
+    private String html;
+    private Document document;
+    private String distilled;
+    private AIIntegrationService service;
+    private DomDistiller distiller;
+
+    @Setup
+    public void setUp() {
+        html = BenchmarkPages.load(page);
+        document = Jsoup.parse(html);
+        distiller = new DomDistiller();
+        distilled = distiller.distill(document).getHtml();
+        service = new AIIntegrationService();
+    }
+
+    @Benchmark
+    public Document parse() {
+        return Jsoup.parse(html);
+    }
+
+    @Benchmark
+    public DomIndex buildIndex() {
+        return DomIndex.build(document);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return document.outerHtml();
+    }
+
+    @Benchmark
+    public DomDistiller.Result distill() {
+        return distiller.distill(document);
+    }
+
+    @Benchmark
+    public String createPrompt() {
+        return service.createAnalysisPrompt(Locators.clean(BROKEN_LOCATOR), distilled, "");
+    }
+
+    @Benchmark
+    public List<String> extractLocators() {
+        return service.extractLocatorsFromAIResponse(ANSWER);
+    }
+
+    @Benchmark
+    public org.openqa.selenium.By parseLocator() {
+        return Locators.parse(BROKEN_LOCATOR);
+    }
+
+    /**
+     * Fresh healer each time, so the index is built as it is on a real heal
+     */
+    @Benchmark
+    public org.openqa.selenium.By localHeal() {
+        return new LocalHealer().heal(BROKEN_LOCATOR, document);
+    }
+}
@@ -6,63 +6,525 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import okhttp3.*;
+import okio.BufferedSource;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Asks the model server (OpenAI-compatible /v1/chat/completions) to repair a damaged locator.
+ * <p>
+ * All instances share one pooled HTTP client, so heals reuse kept-alive connections. Answers are
+ * streamed and the request is cancelled as soon as the expected candidates are complete, which stops
+ * the server from generating tokens nobody reads.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.ai.url - chat completions endpoint (see {@link ModelEndpointPool} for several)</li>
+ *     <li>healing.ai.budget - total time a heal may spend on model calls, failover included, in ms (default 60000)</li>
+ *     <li>healing.ai.hedge - race a second endpoint when the first is slower than its p95 (default false)</li>
+ *     <li>healing.ai.hedgeDelay - hedge delay in ms until an endpoint has a latency history (default 5000)</li>
+ *     <li>healing.ai.model - model name sent in the request</li>
+ *     <li>healing.ai.apiKey - bearer token (default EMPTY)</li>
+ *     <li>healing.ai.stream - stream the answer (default true)</li>
+ *     <li>healing.ai.connectTimeout / healing.ai.readTimeout - in ms (default 30000 / 60000)</li>
+ *     <li>healing.ai.maxIdleConnections / healing.ai.keepAlive - connection pool, keep-alive in ms (default 8 / 300000)</li>
+ *     <li>healing.ai.candidates - candidates asked from the model (default 3)</li>
+ *     <li>healing.ai.maxPromptTokens - larger prompts are split into chunks healed in parallel (default 24000)</li>
+ *     <li>healing.ai.chunking - enable that split; when off, oversized prompts are sent as they are (default true)</li>
+ *     <li>healing.ai.chunkConcurrency - chunk calls in flight at once, across all heals (default 4)</li>
+ *     <li>healing.ai.maxConcurrentCalls - model calls in flight at once across all heals, so concurrent
+ *     async heals do not flood the model server; further calls wait within the heal budget (default 8)</li>
+ * </ul>
+ * Answers go through {@link AIResponseCache}, see there for record/replay settings.
+ */
 public class AIIntegrationService {
-    private static final String QWENMOE_API_URL = "http://10.100.55.98:8660/v1/chat/completions";
+    static final String QWENMOE_API_URL = "http://10.100.55.98:8660/v1/chat/completions";
     private static final String MODEL = "./qwenmoe/content/qwenmoe/";
-    private static final DateTimeFormatter FILE_TIMESTAMP_FORMAT =
-            DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final int HEDGE_MIN_SAMPLES = 5;
+    private static final Semaphore CALL_PERMITS = new Semaphore(HealingConfig.getInt("healing.ai.maxConcurrentCalls", 8));
+    private static final Semaphore CHUNK_PERMITS = new Semaphore(HealingConfig.getInt("healing.ai.chunkConcurrency", 4));
+    private static final LatencyHistogram CHUNK_LATENCY = new LatencyHistogram();
+    private static final HealingMetrics metrics = HealingMetrics.getDefault();
+    private static final ExecutorService MODEL_CALLS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "model-call");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private final OkHttpClient httpClient;
     private final ObjectMapper mapper;
+    private final DomDistiller distiller;
+    private final int candidateCount;
+    private final ModelEndpointPool endpointPool;
+    private final long budgetMillis;
+    private final boolean hedge;
+    private final long hedgeDelayMillis;
+    private final String model;
+    private final String apiKey;
+    private final boolean stream;
+    private final AIResponseCache responseCache;
+    private final int maxPromptTokens;
+    private final boolean chunking;
+    private final List<String> answerKeys = Collections.synchronizedList(new ArrayList<>());
 
     public AIIntegrationService() {
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .build();
+        this(SharedClient.INSTANCE);
+    }
+
+    /**
+     * Use a caller-supplied client, e.g. one with interceptors or a different pool
+     */
+    public AIIntegrationService(OkHttpClient httpClient) {
+        this.httpClient = httpClient;
         this.mapper = new ObjectMapper();
+        this.distiller = new DomDistiller();
+        this.candidateCount = HealingConfig.getInt("healing.ai.candidates", 3);
+        this.endpointPool = ModelEndpointPool.getDefault();
+        this.budgetMillis = HealingConfig.getLong("healing.ai.budget", 60_000);
+        this.hedge = HealingConfig.getBoolean("healing.ai.hedge", false);
+        this.hedgeDelayMillis = HealingConfig.getLong("healing.ai.hedgeDelay", 5_000);
+        this.model = HealingConfig.get("healing.ai.model", MODEL);
+        this.apiKey = HealingConfig.get("healing.ai.apiKey", "EMPTY");
+        this.stream = HealingConfig.getBoolean("healing.ai.stream", true);
+        this.responseCache = AIResponseCache.getDefault();
+        this.maxPromptTokens = HealingConfig.getInt("healing.ai.maxPromptTokens", 24_000);
+        this.chunking = HealingConfig.getBoolean("healing.ai.chunking", true);
+    }
+
+    /**
+     * Duration of every chunk call made for pages larger than the prompt budget
+     */
+    public static LatencyHistogram getChunkLatency() {
+        return CHUNK_LATENCY;
+    }
+
+    /**
+     * One client per JVM: a single connection pool and dispatcher for every heal
+     */
+    private static final class SharedClient {
+        static final OkHttpClient INSTANCE = new OkHttpClient.Builder()
+                .connectTimeout(HealingConfig.getLong("healing.ai.connectTimeout", 30_000), TimeUnit.MILLISECONDS)
+                .readTimeout(HealingConfig.getLong("healing.ai.readTimeout", 60_000), TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(
+                        HealingConfig.getInt("healing.ai.maxIdleConnections", 8),
+                        HealingConfig.getLong("healing.ai.keepAlive", 300_000), TimeUnit.MILLISECONDS))
+                .retryOnConnectionFailure(true)
+                .build();
     }
 
     public String analyzeAndGenerateXPath(String damagedXPath, String htmlSnapshotPath) {
+        String htmlSnapshotContent = readFileContent(htmlSnapshotPath);
+        if (htmlSnapshotContent == null) htmlSnapshotContent = "";
+        return analyzeAndGenerateXPath(damagedXPath, Jsoup.parse(htmlSnapshotContent));
+    }
+
+    /**
+     * Heal against the snapshot captured in memory by HtmlGenerator, without touching the disk.
+     * Returns the best candidate that can be written as an XPath, as a bare XPath;
+     * see {@link #analyzeAndGenerateLocators(String, Document)} for all candidates of every type.
+     */
+    public String analyzeAndGenerateXPath(String damagedXPath, Document snapshot) {
+        for (String candidate : analyzeAndGenerateCandidates(damagedXPath, snapshot, false)) {
+            String xpath = Locators.toXPath(Locators.parse(candidate));
+            if (xpath != null) return xpath;
+        }
+        return null;
+    }
+
+    /**
+     * Ranked candidate locators for the damaged one, best first; empty when the model gave nothing usable
+     */
+    public List<org.openqa.selenium.By> analyzeAndGenerateLocators(String damagedLocator, Document snapshot) {
+        return analyzeAndGenerateLocators(damagedLocator, snapshot, false);
+    }
+
+    /**
+     * As {@link #analyzeAndGenerateLocators(String, Document)}; when scoped, the snapshot is the subtree of the
+     * element the lookup started from and the candidates are relative to that element
+     */
+    public List<org.openqa.selenium.By> analyzeAndGenerateLocators(String damagedLocator, Document snapshot, boolean scoped) {
+        List<org.openqa.selenium.By> locators = new ArrayList<>();
+        for (String candidate : analyzeAndGenerateCandidates(damagedLocator, snapshot, scoped)) {
+            org.openqa.selenium.By locator = Locators.parse(candidate);
+            locators.add(scoped ? Locators.relative(locator) : locator);
+        }
+        return locators;
+    }
+
+    /**
+     * Heal several broken locators of one page with a single prompt, so the page is sent to the model once.
+     * Maps each damaged locator the model answered for to its ranked candidates, best first.
+     * A page over the prompt budget is split into chunks like a single heal's.
+     */
+    public Map<String, List<org.openqa.selenium.By>> analyzeAndGenerateLocators(List<String> damagedLocators, Document snapshot) {
+        Map<String, List<org.openqa.selenium.By>> results = new LinkedHashMap<>();
+        if (damagedLocators.isEmpty()) return results;
+        long deadline = System.currentTimeMillis() + budgetMillis;
         try {
-            String htmlSnapshotContent = readFileContent(htmlSnapshotPath);
-            if (htmlSnapshotContent == null) htmlSnapshotContent = "";
+            DomDistiller.Result distilled = distiller.distill(snapshot);
+            String prompt = createBatchAnalysisPrompt(damagedLocators, distilled.getHtml(), "");
+            Map<String, List<String>> answers;
+            if (chunking && TokenEstimator.estimate(prompt) > maxPromptTokens) {
+                answers = analyzeBatchInChunks(damagedLocators, distilled.getDocument(), deadline);
+            } else {
+                Log.info("Sending batch request for " + damagedLocators.size() + " locators to AI model (~"
+                        + TokenEstimator.estimate(prompt) + " prompt tokens)");
+                Log.debug(() -> "Batch prompt:\n" + prompt);
+                answers = readBatchAnswer(askModel(prompt, deadline), damagedLocators);
+            }
+            answers.forEach((locator, candidates) -> {
+                List<org.openqa.selenium.By> locators = new ArrayList<>();
+                for (String candidate : candidates) {
+                    locators.add(Locators.parse(candidate));
+                }
+                results.put(locator, locators);
+            });
+            Log.info("Generated locators from AI batch analysis: " + results);
+        } catch (Exception e) {
+            Log.error("AI batch analysis failed", e);
+        }
+        return results;
+    }
 
-            String prompt = createAnalysisPrompt(damagedXPath, htmlSnapshotContent);
-            Log.info("Sending request to AI model with prompt:\n" + prompt);
+    /**
+     * Candidates of each damaged locator in a batch answer, at most candidateCount each
+     */
+    private Map<String, List<String>> readBatchAnswer(String aiResponse, List<String> damagedLocators) {
+        Map<String, List<String>> results = new LinkedHashMap<>();
+        JsonNode root = readJsonAnswer(aiResponse);
+        if (root == null) {
+            Log.info("AI batch response doesn't contain valid locators: " + aiResponse);
+            return results;
+        }
+        for (JsonNode result : root.path("results")) {
+            int index = result.path("index").asInt(0) - 1;
+            if (index < 0 || index >= damagedLocators.size()) continue;
+            List<String> candidates = readCandidates(result.path("candidates"));
+            if (candidates.size() > candidateCount) {
+                candidates = new ArrayList<>(candidates.subList(0, candidateCount));
+            }
+            if (!candidates.isEmpty()) {
+                results.put(damagedLocators.get(index), candidates);
+            }
+        }
+        return results;
+    }
 
-            String aiResponse = callQwenMoeAPI(prompt);
-            String xpath = extractXPathFromAIResponse(aiResponse);
+    private List<String> analyzeAndGenerateCandidates(String damagedLocator, Document snapshot, boolean scoped) {
+        // One budget for the whole heal, however many calls it takes
+        long deadline = System.currentTimeMillis() + budgetMillis;
+        try {
+            DomDistiller.Result distilled = distiller.distill(snapshot);
+            String prompt = createAnalysisPrompt(damagedLocator, distilled.getHtml(), scoped ? SCOPE_RULES : "");
+            if (chunking && TokenEstimator.estimate(prompt) > maxPromptTokens) {
+                return analyzeInChunks(damagedLocator, distilled.getDocument(), scoped, deadline);
+            }
+            Log.info("Sending request to AI model (~" + TokenEstimator.estimate(prompt) + " prompt tokens)");
+            Log.debug(() -> "Prompt:\n" + prompt);
 
-            if (xpath == null || xpath.isEmpty()) {
-                Log.info("Failed to extract valid XPath from AI response");
-                return null;
+            String aiResponse = askModel(prompt, deadline);
+            List<String> candidates = extractLocatorsFromAIResponse(aiResponse);
+
+            if (candidates.isEmpty()) {
+                Log.info("Failed to extract valid locators from AI response");
+                return candidates;
             }
 
-            Log.info("Generated XPath from AI analysis: " + xpath);
-            return xpath;
+            Log.info("Generated locators from AI analysis: " + candidates);
+            return candidates;
 
         } catch (Exception e) {
             Log.error("AI analysis failed", e);
-            return null;
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Map-reduce for pages larger than the prompt budget: ask about every chunk in parallel, then merge the
+     * answers, the first choices of all chunks before the runner-ups and locators unique in the whole page first.
+     * All chunks share the heal's deadline; chunks that have not started when it passes are skipped.
+     */
+    private List<String> analyzeInChunks(String damagedLocator, Document distilled, boolean scoped, long deadline) {
+        long start = System.nanoTime();
+        String rules = scoped ? SCOPE_RULES : "";
+        int overhead = TokenEstimator.estimate(createAnalysisPrompt(damagedLocator, "", rules + String.format(CHUNK_RULES, 1, 1)));
+        List<String> chunks = new DomChunker(maxPromptTokens - overhead).chunk(distilled);
+        Log.info("🧩 Page exceeds ~" + maxPromptTokens + " prompt tokens, healing over " + chunks.size() + " chunks");
+
+        List<CompletableFuture<List<String>>> answers = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            String prompt = createAnalysisPrompt(damagedLocator, chunks.get(i), rules + String.format(CHUNK_RULES, i + 1, chunks.size()));
+            int chunk = i + 1;
+            answers.add(CompletableFuture.supplyAsync(() -> {
+                String answer = askChunk(chunk, chunks.size(), prompt, deadline);
+                return answer == null ? List.<String>of() : extractLocatorsFromAIResponse(answer);
+            }, MODEL_CALLS));
         }
+
+        List<List<String>> perChunk = new ArrayList<>();
+        answers.forEach(answer -> perChunk.add(answer.join()));
+        List<String> reduced = mergeChunks(perChunk, distilled);
+        Log.info("🧩 Healed over " + chunks.size() + " chunks in " + (System.nanoTime() - start) / 1_000_000
+                + " ms, candidates " + reduced + " (chunk calls so far: " + CHUNK_LATENCY + ")");
+        return reduced;
     }
 
-    private String callQwenMoeAPI(String prompt) throws IOException {
+    /**
+     * {@link #analyzeInChunks} for a batch: every chunk is asked about all the locators, and the
+     * answers are merged locator by locator
+     */
+    private Map<String, List<String>> analyzeBatchInChunks(List<String> damagedLocators, Document distilled, long deadline) {
+        long start = System.nanoTime();
+        int overhead = TokenEstimator.estimate(createBatchAnalysisPrompt(damagedLocators, "", String.format(BATCH_CHUNK_RULES, 1, 1)));
+        List<String> chunks = new DomChunker(maxPromptTokens - overhead).chunk(distilled);
+        Log.info("🧩 Page exceeds ~" + maxPromptTokens + " prompt tokens, batch healing " + damagedLocators.size()
+                + " locators over " + chunks.size() + " chunks");
+
+        List<CompletableFuture<Map<String, List<String>>>> answers = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            String prompt = createBatchAnalysisPrompt(damagedLocators, chunks.get(i), String.format(BATCH_CHUNK_RULES, i + 1, chunks.size()));
+            int chunk = i + 1;
+            answers.add(CompletableFuture.supplyAsync(() -> {
+                String answer = askChunk(chunk, chunks.size(), prompt, deadline);
+                return answer == null ? Map.<String, List<String>>of() : readBatchAnswer(answer, damagedLocators);
+            }, MODEL_CALLS));
+        }
+
+        List<Map<String, List<String>>> perChunk = new ArrayList<>();
+        answers.forEach(answer -> perChunk.add(answer.join()));
+        Map<String, List<String>> reduced = new LinkedHashMap<>();
+        for (String locator : damagedLocators) {
+            List<List<String>> candidates = new ArrayList<>();
+            perChunk.forEach(answer -> candidates.add(answer.getOrDefault(locator, List.of())));
+            List<String> merged = mergeChunks(candidates, distilled);
+            if (!merged.isEmpty()) reduced.put(locator, merged);
+        }
+        Log.info("🧩 Batch healed over " + chunks.size() + " chunks in " + (System.nanoTime() - start) / 1_000_000
+                + " ms, candidates " + reduced + " (chunk calls so far: " + CHUNK_LATENCY + ")");
+        return reduced;
+    }
+
+    /**
+     * Reduce step: the first choices of all chunks before the runner-ups, locators unique in the whole page first
+     */
+    private List<String> mergeChunks(List<List<String>> perChunk, Document distilled) {
+        Set<String> merged = new LinkedHashSet<>();
+        for (int rank = 0; rank < candidateCount; rank++) {
+            for (List<String> candidates : perChunk) {
+                if (rank < candidates.size()) merged.add(candidates.get(rank));
+            }
+        }
+        List<String> unique = new ArrayList<>();
+        List<String> others = new ArrayList<>();
+        for (String candidate : merged) {
+            int matches = Locators.matchCount(distilled, Locators.parse(candidate));
+            if (matches == 1) {
+                unique.add(candidate);
+            } else if (matches != 0) {
+                others.add(candidate);
+            }
+        }
+        unique.addAll(others);
+        return unique.size() > candidateCount ? new ArrayList<>(unique.subList(0, candidateCount)) : unique;
+    }
+
+    /**
+     * Answer of one chunk, null when it was skipped for the spent budget or failed
+     */
+    private String askChunk(int chunk, int chunks, String prompt, long deadline) {
+        long start = System.nanoTime();
+        String answer = null;
+        try {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !CHUNK_PERMITS.tryAcquire(remaining, TimeUnit.MILLISECONDS)) {
+                Log.info("🧩 Chunk " + chunk + "/" + chunks + " skipped, the heal budget is spent");
+                return null;
+            }
+            try {
+                answer = askModel(prompt, deadline);
+            } finally {
+                CHUNK_PERMITS.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.error("AI analysis of chunk " + chunk + "/" + chunks + " failed", e);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        CHUNK_LATENCY.record(elapsedMs);
+        Log.info("🧩 Chunk " + chunk + "/" + chunks + " (~" + TokenEstimator.estimate(prompt) + " tokens) answered in "
+                + elapsedMs + " ms");
+        return answer;
+    }
+
+    /**
+     * Answer from the response cache or the model; the key is kept until the outcome is reported
+     */
+    private String askModel(String prompt, long deadline) throws IOException {
+        answerKeys.add(AIResponseCache.key(model, prompt));
+        return responseCache.get(model, prompt, () -> callQwenMoeAPI(prompt, deadline));
+    }
+
+    /**
+     * Whether the candidates of the analyses so far healed their locators. Only answers that healed
+     * are kept by the response cache; the others are dropped so they are asked for again.
+     */
+    public void reportOutcome(boolean healed) {
+        List<String> keys;
+        synchronized (answerKeys) {
+            keys = new ArrayList<>(answerKeys);
+            answerKeys.clear();
+        }
+        for (String key : keys) {
+            if (healed) {
+                responseCache.accept(key);
+            } else {
+                responseCache.reject(key);
+            }
+        }
+    }
+
+    /**
+     * Ask the endpoint pool within the heal budget: fail over to another endpoint when one fails,
+     * and optionally hedge a slow call with a second endpoint
+     */
+    private String callQwenMoeAPI(String prompt, long deadline) throws IOException {
+        long start = System.nanoTime();
+        metrics.record(HealingMetrics.PROMPT_TOKENS, TokenEstimator.estimate(prompt));
+        try {
+            if (!CALL_PERMITS.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                throw new IOException("No model call slot free within the heal budget");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a model call slot");
+        }
+        try {
+            return callEndpoints(prompt, deadline);
+        } finally {
+            CALL_PERMITS.release();
+            metrics.record(HealingMetrics.MODEL_ROUND_TRIP, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private String callEndpoints(String prompt, long deadline) throws IOException {
+        Set<ModelEndpoint> tried = new HashSet<>();
+        IOException lastFailure = null;
+        while (System.currentTimeMillis() < deadline) {
+            ModelEndpoint endpoint = endpointPool.acquire(tried);
+            if (endpoint == null) break;
+            tried.add(endpoint);
+            try {
+                return hedge ? callHedged(endpoint, prompt, deadline, tried) : callEndpoint(new Attempt(endpoint), prompt, deadline);
+            } catch (RequestRejectedException e) {
+                // The request is at fault, the next endpoint would reject it too
+                throw e;
+            } catch (IOException e) {
+                lastFailure = e;
+                Log.info("Model endpoint failed: " + endpoint.getUrl() + " (" + e.getMessage() + ")");
+            }
+        }
+        if (lastFailure != null) throw lastFailure;
+        throw new IOException("No model endpoint available within the heal budget: " + endpointPool.getEndpoints());
+    }
+
+    private String callHedged(ModelEndpoint primary, String prompt, long deadline, Set<ModelEndpoint> tried) throws IOException {
+        Attempt first = new Attempt(primary);
+        CompletableFuture<String> firstResult = submit(first, prompt, deadline);
+        long delay = primary.getLatency().getCount() >= HEDGE_MIN_SAMPLES
+                ? primary.getLatency().getPercentileMillis(95) : hedgeDelayMillis;
+        try {
+            return firstResult.get(Math.min(delay, Math.max(0, deadline - System.currentTimeMillis())), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Slower than usual: race another endpoint below
+        } catch (InterruptedException | ExecutionException e) {
+            throw unwrap(e);
+        }
+
+        ModelEndpoint secondary = endpointPool.acquire(tried);
+        if (secondary == null) {
+            return await(firstResult, deadline, first);
+        }
+        tried.add(secondary);
+        Log.info("Hedging slow model call on " + primary.getUrl() + " with " + secondary.getUrl());
+        Attempt second = new Attempt(secondary);
+        CompletableFuture<String> secondResult = submit(second, prompt, deadline);
+
+        CompletableFuture<String> winner = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        BiConsumer<String, Throwable> race = (result, error) -> {
+            if (error == null) {
+                winner.complete(result);
+            } else if (failed.incrementAndGet() == 2) {
+                winner.completeExceptionally(error);
+            }
+        };
+        firstResult.whenComplete(race);
+        secondResult.whenComplete(race);
+        return await(winner, deadline, first, second);
+    }
+
+    private CompletableFuture<String> submit(Attempt attempt, String prompt, long deadline) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return callEndpoint(attempt, prompt, deadline);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, MODEL_CALLS);
+    }
+
+    /**
+     * Wait for the result until the deadline; the attempts still running afterwards are cancelled
+     */
+    private static String await(CompletableFuture<String> result, long deadline, Attempt... attempts) throws IOException {
+        try {
+            return result.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Model call exceeded the heal budget");
+        } catch (InterruptedException | ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            for (Attempt attempt : attempts) attempt.cancel();
+        }
+    }
+
+    private static IOException unwrap(Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return new InterruptedIOException("Interrupted while waiting for the model");
+        }
+        Throwable cause = e.getCause();
+        while (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+
+    /**
+     * One call to one endpoint, bounded by what is left of the heal budget
+     */
+    private String callEndpoint(Attempt attempt, String prompt, long deadline) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            attempt.endpoint.release();
+            throw new IOException("Heal budget exhausted before calling " + attempt.endpoint.getUrl());
+        }
         ObjectNode requestBody = mapper.createObjectNode();
-        requestBody.put("model", MODEL);
+        requestBody.put("model", model);
+        requestBody.put("stream", stream);
 
         ArrayNode messages = mapper.createArrayNode();
         ObjectNode message = mapper.createObjectNode();
@@ -73,35 +535,186 @@ public class AIIntegrationService {
         requestBody.set("messages", messages);
 
         Request request = new Request.Builder()
-                .url(QWENMOE_API_URL)
-                .post(RequestBody.create(
-                        requestBody.toString(),
-                        MediaType.parse("application/json")))
-                .addHeader("Authorization", "Bearer EMPTY")
+                .url(attempt.endpoint.getUrl())
+                .post(RequestBody.create(requestBody.toString(), JSON))
+                .addHeader("Authorization", "Bearer " + apiKey)
                 .addHeader("Content-Type", "application/json")
                 .build();
 
-        try (Response response = httpClient.newCall(request).execute()) {
+        Call call = httpClient.newCall(request);
+        call.timeout().timeout(remaining, TimeUnit.MILLISECONDS);
+        if (!attempt.start(call)) {
+            throw new IOException("Model call cancelled");
+        }
+        long start = System.nanoTime();
+        try (Response response = call.execute()) {
             if (!response.isSuccessful()) {
                 String errorBody = response.body() != null ? response.body().string() : "empty body";
                 Log.info("API request failed. Status: " + response.code() + ", Body: " + errorBody);
+                if (isClientError(response.code())) {
+                    attempt.rejected();
+                    throw new RequestRejectedException("Request rejected: " + response);
+                }
                 throw new IOException("Unexpected response: " + response);
             }
 
-            String responseBody = response.body().string();
-            Log.info("Raw API response: " + responseBody);
+            String aiResponse;
+            String contentType = response.header("Content-Type", "");
+            if (stream && contentType.startsWith("text/event-stream")) {
+                aiResponse = readStream(call, response.body().source());
+            } else {
+                String responseBody = response.body().string();
+                Log.debug(() -> "Raw API response: " + responseBody);
 
-            JsonNode root = mapper.readTree(responseBody);
-            String aiResponse = root.path("choices")
-                    .path(0)
-                    .path("message")
-                    .path("content")
-                    .asText()
-                    .trim();
+                JsonNode root = mapper.readTree(responseBody);
+                aiResponse = root.path("choices")
+                        .path(0)
+                        .path("message")
+                        .path("content")
+                        .asText()
+                        .trim();
+            }
 
             Log.info("AI model response: " + aiResponse);
+            attempt.succeeded((System.nanoTime() - start) / 1_000_000);
             return aiResponse;
+        } catch (IOException | RuntimeException e) {
+            attempt.failed();
+            throw e;
+        }
+    }
+
+    /**
+     * 4xx other than a timeout or rate limit: the request is wrong (too large, unauthorized), not the endpoint
+     */
+    private static boolean isClientError(int code) {
+        return code >= 400 && code < 500 && code != 408 && code != 429;
+    }
+
+    /**
+     * A client error answer: raised to the caller without failing over or counting against the endpoint
+     */
+    static final class RequestRejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RequestRejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A call in flight on one endpoint; cancelling it (hedge lost, budget over) does not count against the endpoint
+     */
+    private static final class Attempt {
+        final ModelEndpoint endpoint;
+        private Call call;
+        private boolean finished;
+        private boolean cancelled;
+
+        Attempt(ModelEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        synchronized boolean start(Call call) {
+            if (cancelled) {
+                endpoint.release();
+                return false;
+            }
+            this.call = call;
+            return true;
+        }
+
+        synchronized void succeeded(long millis) {
+            if (finished) return;
+            finished = true;
+            endpoint.recordSuccess(millis);
+        }
+
+        /**
+         * The endpoint answered, only not to this request: no failure, no success
+         */
+        synchronized void rejected() {
+            if (finished) return;
+            finished = true;
+            endpoint.release();
+        }
+
+        synchronized void failed() {
+            if (finished) return;
+            finished = true;
+            if (cancelled) {
+                endpoint.release();
+            } else {
+                endpoint.recordFailure();
+            }
+        }
+
+        synchronized void cancel() {
+            if (finished || cancelled) return;
+            cancelled = true;
+            if (call != null) call.cancel();
+        }
+    }
+
+    /**
+     * Collect the streamed deltas (server-sent events) and cancel the call once the answer is complete
+     */
+    private String readStream(Call call, BufferedSource source) throws IOException {
+        StringBuilder content = new StringBuilder();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (!line.startsWith("data:")) continue;
+            String data = line.substring(5).trim();
+            if ("[DONE]".equals(data)) break;
+
+            JsonNode chunk = mapper.readTree(data);
+            // The first delta carries only the role, its content is missing or null
+            String delta = chunk.path("choices").path(0).path("delta").path("content").textValue();
+            if (delta != null) content.append(delta);
+            if (isAnswerComplete(content)) {
+                Log.info("Answer complete after " + content.length() + " chars, cancelling generation");
+                call.cancel();
+                break;
+            }
+        }
+        return content.toString().trim();
+    }
+
+    /**
+     * True once the JSON answer has closed, or once enough complete lines arrived for a plain-text answer
+     */
+    static boolean isAnswerComplete(CharSequence content, int candidateCount) {
+        int depth = 0;
+        boolean inString = false;
+        boolean sawObject = false;
+        int completeLines = 0;
+        int lineLength = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (inString) {
+                if (c == '\\') i++;
+                else if (c == '"') inString = false;
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+                sawObject = true;
+            } else if (c == '}') {
+                depth--;
+                if (sawObject && depth == 0) return true;
+            }
+            if (c == '\n') {
+                if (lineLength > 0 && !sawObject) completeLines++;
+                lineLength = 0;
+            } else if (!Character.isWhitespace(c) && c != '`') {
+                lineLength++;
+            }
         }
+        return !sawObject && completeLines >= candidateCount;
+    }
+
+    private boolean isAnswerComplete(CharSequence content) {
+        return isAnswerComplete(content, candidateCount);
     }
 
     private String readFileContent(String filePath) {
@@ -119,7 +732,7 @@ public class AIIntegrationService {
         }
     }
 
-    private String createAnalysisPrompt(String damagedLocator, String htmlSnapshot) {
+    String createAnalysisPrompt(String damagedLocator, String htmlSnapshot, String extraRules) {
         boolean hasContains = damagedLocator != null && damagedLocator.contains("contains(");
 
         return String.format(
@@ -131,43 +744,155 @@ public class AIIntegrationService {
                         "- Attempt to locate the intended target element in the provided HTML.\n" +
                         "- If the element still exists but the locator no longer matches, generate a corrected and stable locator of the SAME TYPE if possible.\n" +
                         "- If the element is not present or cannot be confidently matched, generate a **new** stable locator (preferably of the same type, otherwise fallback to XPath) that best identifies the element **based on the original locator’s intent**.\n\n" +
-                        "LOCATOR CONSTRUCTION RULES:\n" +
-                        "- Prefer short, stable, attribute-based locators.\n" +
-                        "- Attribute priority order: @id → @name → stable part of @class → visible text → other attributes.\n" +
-                        "- Only use contains() in XPath when exact attribute match is not possible.\n" +
-                        (hasContains
-                                ? "- The original damaged XPath uses contains(); if possible, preserve or adapt contains() logic in the corrected XPath.\n"
-                                : "") +
-                        "- When matching visible text, if the text in HTML contains leading or trailing spaces, keep them exactly as they appear (do not trim spaces).\n" +
-                        "- Avoid absolute paths like /html/body in XPath.\n" +
-                        "- Locator must uniquely identify the element.\n\n" +
+                        "%s" +
                         "OUTPUT FORMAT (IMPORTANT):\n" +
-                        "- Output **only** the corrected/new locator value.\n" +
+                        "- Output up to %d different candidate locators for the intended element, best first, as JSON only:\n" +
+                        "{\"candidates\": [{\"type\": \"id\", \"value\": \"login\"}, {\"type\": \"xpath\", \"value\": \"//button[text()='Login']\"}]}\n" +
+                        "- type is one of: id, name, cssSelector, className, tagName, linkText, partialLinkText, xpath.\n" +
                         "- No explanations, no reasoning, no markdown, no labels.\n",
                 damagedLocator,
-                htmlSnapshot
+                htmlSnapshot,
+                locatorRules(hasContains) + extraRules,
+                candidateCount
         );
     }
 
-    private String extractXPathFromAIResponse(String response) {
-        String cleanedResponse = response.replaceAll("^```", "")
+    /**
+     * Same task as {@link #createAnalysisPrompt}, for several numbered locators of one page at once
+     */
+    private String createBatchAnalysisPrompt(List<String> damagedLocators, String htmlSnapshot, String extraRules) {
+        StringBuilder numbered = new StringBuilder();
+        boolean hasContains = false;
+        for (int i = 0; i < damagedLocators.size(); i++) {
+            numbered.append(i + 1).append(") ").append(damagedLocators.get(i)).append('\n');
+            hasContains |= damagedLocators.get(i).contains("contains(");
+        }
+
+        return String.format(
+                "ROLE: You are an expert Selenium locator repair engine.\n\n" +
+                        "INPUT:\n" +
+                        "1) Damaged Locators, numbered (each could be XPath, id, cssSelector, className, tagName, linkText, or partialLinkText):\n%s\n" +
+                        "2) HTML Snapshot:\n'''\n%s\n'''\n\n" +
+                        "TASK:\n" +
+                        "- For EACH damaged locator, attempt to locate its intended target element in the provided HTML.\n" +
+                        "- If the element still exists but the locator no longer matches, generate a corrected and stable locator of the SAME TYPE if possible.\n" +
+                        "- If the element is not present or cannot be confidently matched, generate a **new** stable locator (preferably of the same type, otherwise fallback to XPath) that best identifies the element **based on the original locator’s intent**.\n\n" +
+                        "%s" +
+                        "OUTPUT FORMAT (IMPORTANT):\n" +
+                        "- For each damaged locator output up to %d different candidate locators, best first, as JSON only:\n" +
+                        "{\"results\": [{\"index\": 1, \"candidates\": [{\"type\": \"id\", \"value\": \"login\"}]}, {\"index\": 2, \"candidates\": [{\"type\": \"xpath\", \"value\": \"//button[text()='Save']\"}]}]}\n" +
+                        "- index is the number of the damaged locator; type is one of: id, name, cssSelector, className, tagName, linkText, partialLinkText, xpath.\n" +
+                        "- No explanations, no reasoning, no markdown, no labels.\n",
+                numbered,
+                htmlSnapshot,
+                locatorRules(hasContains) + extraRules,
+                candidateCount
+        );
+    }
+
+    private static final String SCOPE_RULES =
+            "SCOPE:\n" +
+                    "- The HTML is only the subtree of the element the lookup starts from (its outermost element).\n" +
+                    "- The locator is evaluated relative to that element and must match one of its descendants; an XPath must start with '.' (e.g. .//button).\n\n";
+
+    private static final String CHUNK_RULES =
+            "PARTIAL PAGE:\n" +
+                    "- The HTML is part %d of %d of a page too large to send at once; the ancestors of this part are kept, their other children are left out.\n" +
+                    "- If the intended element is not in this part, output {\"candidates\": []}.\n\n";
+
+    private static final String BATCH_CHUNK_RULES =
+            "PARTIAL PAGE:\n" +
+                    "- The HTML is part %d of %d of a page too large to send at once; the ancestors of this part are kept, their other children are left out.\n" +
+                    "- Leave out of results every damaged locator whose intended element is not in this part.\n\n";
+
+    private static String locatorRules(boolean hasContains) {
+        return "LOCATOR CONSTRUCTION RULES:\n" +
+                "- Prefer short, stable, attribute-based locators.\n" +
+                "- Attribute priority order: @id → @name → stable part of @class → visible text → other attributes.\n" +
+                "- Only use contains() in XPath when exact attribute match is not possible.\n" +
+                (hasContains
+                        ? "- The original damaged XPath uses contains(); if possible, preserve or adapt contains() logic in the corrected XPath.\n"
+                        : "") +
+                "- When matching visible text, if the text in HTML contains leading or trailing spaces, keep them exactly as they appear (do not trim spaces).\n" +
+                "- Avoid absolute paths like /html/body in XPath.\n" +
+                "- Locator must uniquely identify the element.\n\n";
+    }
+
+    /**
+     * Candidates from the JSON answer; models that ignore the format get one candidate per line
+     */
+    List<String> extractLocatorsFromAIResponse(String response) {
+        List<String> candidates = new ArrayList<>();
+        String cleanedResponse = response.replaceAll("^```(json)?", "")
                 .replaceAll("```$", "")
                 .trim();
-        // Extract the first non-empty line as the XPath
-        for (String line : cleanedResponse.split("\\r?\\n")) {
-            String xpath = line.trim();
-            if (!xpath.isEmpty()) {
-                Log.info("Extracted XPath: " + xpath);
-                return xpath;
+        JsonNode root = readJsonAnswer(cleanedResponse);
+        if (root != null) {
+            candidates.addAll(readCandidates(root.path("candidates")));
+        } else {
+            for (String line : cleanedResponse.split("\\r?\\n")) {
+                String locator = line.trim().replaceFirst("^(\\d+[.)]|-)\\s+", "");
+                if (!locator.isEmpty()) {
+                    candidates.add(locator);
+                }
             }
         }
-        Log.info("AI response doesn't contain valid XPath: " + response);
-        return null;
+        if (candidates.isEmpty()) {
+            Log.info("AI response doesn't contain valid locators: " + response);
+        } else {
+            Log.info("Extracted locators: " + candidates);
+        }
+        return candidates.size() > candidateCount ? new ArrayList<>(candidates.subList(0, candidateCount)) : candidates;
+    }
+
+    /**
+     * The JSON object of the answer, or null when it has none
+     */
+    private JsonNode readJsonAnswer(String response) {
+        int jsonStart = response.indexOf('{');
+        int jsonEnd = response.lastIndexOf('}');
+        if (jsonStart < 0 || jsonEnd < jsonStart) return null;
+        try {
+            return mapper.readTree(response.substring(jsonStart, jsonEnd + 1));
+        } catch (IOException e) {
+            Log.info("AI response is not valid JSON, reading it line by line");
+            return null;
+        }
+    }
+
+    /**
+     * [{type, value}, ...] as "By.type: value" strings
+     */
+    private static List<String> readCandidates(JsonNode array) {
+        List<String> candidates = new ArrayList<>();
+        for (JsonNode candidate : array) {
+            String type = candidate.path("type").textValue();
+            String value = candidate.path("value").textValue();
+            if (value == null || value.isBlank()) continue;
+            String factory = type == null ? null : Locators.normalizeType(type);
+            if (factory == null) {
+                Log.info("Skipping candidate of unknown locator type " + type + ": " + value);
+                continue;
+            }
+            candidates.add("By." + factory + ": " + value.trim());
+        }
+        return candidates;
     }
 
+    /**
+     * Heal against the most recent snapshot in the {@link SnapshotArchive}.
+     *
+     * @deprecated needs healing.snapshots.enabled and races with the asynchronous snapshot writer.
+     * Use {@link #analyzeAndGenerateXPath(String, Document)} with the in-memory snapshot instead.
+     */
+    @Deprecated
     public String autoAnalyzeAndFix(String damagedXPath) {
-        String timestamp = LocalDateTime.now().format(FILE_TIMESTAMP_FORMAT);
-        String htmlSnapshotPath = "html_snapshots/snapshot_" + timestamp + ".html";
-        return analyzeAndGenerateXPath(damagedXPath, htmlSnapshotPath);
+        SnapshotArchive archive = SnapshotArchive.getDefault();
+        Optional<String> latest = archive.latest().flatMap(archive::read);
+        if (latest.isEmpty()) {
+            Log.info("No HTML snapshot found to analyze");
+            return null;
+        }
+        return analyzeAndGenerateXPath(damagedXPath, Jsoup.parse(latest.get()));
     }
 }
@@ -0,0 +1,277 @@
+package com.fawry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fawry.utilities.Log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of model answers, keyed by a SHA-256 of the model name and the prompt.
+ * Since the prompt embeds the distilled DOM, the same locator on the same page is answered once.
+ * <p>
+ * Answers are kept in a bounded LRU in memory and as one JSON file per key in a directory that
+ * can be shared between runs and checked in for CI. A fresh answer is only written to disk once the
+ * caller {@link #accept accepts} it, i.e. it healed the locator; an answer that fails validation is
+ * {@link #reject rejected} and dropped, so a bad answer is never replayed.
+ * <p>
+ * Modes (healing.ai.cache.mode):
+ * <ul>
+ *     <li>record - serve cached answers, call the model on a miss and store its answer once accepted (default)</li>
+ *     <li>replay - serve cached answers only; a miss fails, so CI heals offline and deterministically</li>
+ *     <li>passthrough - always call the model, cache nothing</li>
+ * </ul>
+ * Other settings: healing.ai.cache.dir (default .self-healing/ai-responses),
+ * healing.ai.cache.maxEntries (in-memory entries, default 256), healing.ai.cache.maxAge (answers older
+ * than this are not served, default 7 days), healing.ai.cache.maxFiles (answers kept on disk, oldest
+ * removed first, default 1000).
+ */
+public class AIResponseCache {
+    public enum Mode {RECORD, REPLAY, PASSTHROUGH}
+
+    /**
+     * The model round-trip the cache sits in front of
+     */
+    @FunctionalInterface
+    public interface ModelCall {
+        String call() throws IOException;
+    }
+
+    private static volatile AIResponseCache defaultCache;
+
+    private final Mode mode;
+    private final Path directory;
+    private final Map<String, Answer> memory;
+    private final long maxAgeMillis;
+    private final int maxFiles;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public AIResponseCache(Mode mode, Path directory, int maxEntries) {
+        this(mode, directory, maxEntries, Duration.ofDays(7), 1000);
+    }
+
+    public AIResponseCache(Mode mode, Path directory, int maxEntries, Duration maxAge, int maxFiles) {
+        this.mode = mode;
+        this.directory = directory;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.maxFiles = maxFiles;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Answer> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * A cached answer; stored once it is on disk
+     */
+    private static final class Answer {
+        final String model;
+        final String response;
+        final long created;
+        boolean stored;
+
+        Answer(String model, String response, long created, boolean stored) {
+            this.model = model;
+            this.response = response;
+            this.created = created;
+            this.stored = stored;
+        }
+    }
+
+    public static AIResponseCache getDefault() {
+        if (defaultCache == null) {
+            synchronized (AIResponseCache.class) {
+                if (defaultCache == null) {
+                    defaultCache = new AIResponseCache(
+                            parseMode(HealingConfig.get("healing.ai.cache.mode", "record")),
+                            Paths.get(HealingConfig.get("healing.ai.cache.dir", ".self-healing/ai-responses")),
+                            HealingConfig.getInt("healing.ai.cache.maxEntries", 256),
+                            HealingConfig.getDuration("healing.ai.cache.maxAge", Duration.ofDays(7)),
+                            HealingConfig.getInt("healing.ai.cache.maxFiles", 1000));
+                }
+            }
+        }
+        return defaultCache;
+    }
+
+    private static Mode parseMode(String value) {
+        try {
+            return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            Log.warning("Unknown healing.ai.cache.mode '" + value + "', AI responses will not be cached");
+            return Mode.PASSTHROUGH;
+        }
+    }
+
+    /**
+     * Answer for the prompt from the cache, or from the model according to the mode.
+     * A fresh answer stays in memory until it is {@link #accept accepted}.
+     */
+    public String get(String model, String prompt, ModelCall modelCall) throws IOException {
+        if (mode == Mode.PASSTHROUGH) {
+            return modelCall.call();
+        }
+        String key = key(model, prompt);
+        String cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            HealingMetrics.getDefault().increment(HealingMetrics.AI_CACHE_HITS);
+            Log.info("💾 AI response served from cache: " + key);
+            return cached;
+        }
+        misses.incrementAndGet();
+        HealingMetrics.getDefault().increment(HealingMetrics.AI_CACHE_MISSES);
+        if (mode == Mode.REPLAY) {
+            throw new IOException("No recorded AI response for prompt " + key + " in " + directory.toAbsolutePath());
+        }
+        String response = modelCall.call();
+        synchronized (memory) {
+            memory.put(key, new Answer(model, response, System.currentTimeMillis(), false));
+        }
+        return response;
+    }
+
+    /**
+     * The answer under this key healed a locator: keep it on disk for later runs
+     */
+    public void accept(String key) {
+        if (mode != Mode.RECORD) return;
+        Answer answer;
+        synchronized (memory) {
+            answer = memory.get(key);
+            if (answer == null || answer.stored) return;
+            answer.stored = true;
+        }
+        store(key, answer);
+    }
+
+    /**
+     * The answer under this key failed validation: forget it, so it is asked for again next time.
+     * In replay mode the recorded file is left alone, it belongs to the recording.
+     */
+    public void reject(String key) {
+        synchronized (memory) {
+            memory.remove(key);
+        }
+        if (mode != Mode.RECORD) {
+            Log.warning("Recorded AI response " + key + " no longer heals its locator, re-record it");
+            return;
+        }
+        try {
+            if (Files.deleteIfExists(directory.resolve(key + ".json"))) {
+                Log.info("🗑️ Dropped cached AI response that failed validation: " + key);
+            }
+        } catch (IOException e) {
+            Log.error("Failed to drop cached AI response " + key, e);
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private String lookup(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            Answer cached = memory.get(key);
+            if (cached != null) {
+                if (now - cached.created <= maxAgeMillis) return cached.response;
+                memory.remove(key);
+            }
+        }
+        Path file = directory.resolve(key + ".json");
+        if (!Files.exists(file)) return null;
+        try {
+            JsonNode node = mapper.readTree(file.toFile());
+            String response = node.path("response").textValue();
+            long created = node.path("created").asLong(0);
+            if (response == null) return null;
+            if (now - created > maxAgeMillis) {
+                Log.info("⌛ Cached AI response expired: " + key);
+                if (mode == Mode.RECORD) Files.deleteIfExists(file);
+                return null;
+            }
+            synchronized (memory) {
+                memory.put(key, new Answer(node.path("model").textValue(), response, created, true));
+            }
+            return response;
+        } catch (IOException e) {
+            Log.error("Unreadable cached AI response " + file, e);
+            return null;
+        }
+    }
+
+    private void store(String key, Answer answer) {
+        try {
+            Files.createDirectories(directory);
+            ObjectNode node = mapper.createObjectNode();
+            node.put("model", answer.model);
+            node.put("created", answer.created);
+            node.put("response", answer.response);
+            // Write then rename, so parallel runs never read a half-written answer
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temp, mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(node));
+            Files.move(temp, directory.resolve(key + ".json"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            prune();
+        } catch (IOException e) {
+            Log.error("Failed to record AI response " + key, e);
+        }
+    }
+
+    /**
+     * Keep at most maxFiles answers on disk, dropping the least recently written
+     */
+    private void prune() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(file -> file.getFileName().toString().endsWith(".json")).toList();
+        }
+        if (files.size() <= maxFiles) return;
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path file : files) {
+            try {
+                modified.put(file, Files.getLastModifiedTime(file).toMillis());
+            } catch (IOException e) {
+                // Removed by a parallel run
+            }
+        }
+        List<Path> oldestFirst = new ArrayList<>(modified.keySet());
+        oldestFirst.sort(Comparator.comparing(modified::get));
+        for (int i = 0; i < oldestFirst.size() - maxFiles; i++) {
+            Files.deleteIfExists(oldestFirst.get(i));
+        }
+    }
+
+    static String key(String model, String prompt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(prompt.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.fawry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fawry.utilities.Log;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Does the browser-side work of a heal in single executeScript round-trips instead of shipping
+ * the whole page source over the WebDriver wire and checking candidates one wait at a time.
+ * <p>
+ * {@link #captureInventory()} collects a compact element tree (tag, attributes, short text nodes in
+ * document order, visibility) and rebuilds it as a jsoup Document for the healers.
+ * {@link #validate(List)} counts the matches of many candidate locators in one call.
+ * Both can be scoped to an element, for lookups made from a WebElement.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.probe.enabled - use the probe when the driver runs JavaScript (default true)</li>
+ *     <li>healing.probe.maxElements - most elements collected (default 20000)</li>
+ *     <li>healing.probe.maxText - longest text or attribute value collected (default 200)</li>
+ *     <li>healing.probe.requireVisible - accept only candidates whose match is visible (default true)</li>
+ * </ul>
+ */
+public class BrowserProbe {
+    /**
+     * Marks the elements of a captured inventory that were not visible in the browser
+     */
+    static final String HIDDEN_MARKER = "data-heal-hidden";
+
+    private static final String INVENTORY_SCRIPT =
+            "var maxElements = arguments[0], maxText = arguments[1];" +
+            "var skip = {SCRIPT: 1, STYLE: 1, NOSCRIPT: 1, TEMPLATE: 1, LINK: 1, META: 1, svg: 1, SVG: 1};" +
+            "var out = [], count = 0, stack = [[arguments[2] || document.documentElement, -1]];" +
+            "function cut(v) { return v.length > maxText ? v.substring(0, maxText) : v; }" +
+            "while (stack.length && count < maxElements) {" +
+            "  var item = stack.pop(), e = item[0];" +
+            // Text gets rows of its own, so it keeps its place between the children
+            "  if (e.nodeType === 3) { out.push(['#text', item[1], 1, cut(e.nodeValue.replace(/\\s+/g, ' ')), {}]); continue; }" +
+            "  if (skip[e.tagName]) continue;" +
+            "  var attrs = {};" +
+            "  for (var i = 0; i < e.attributes.length; i++) {" +
+            "    var a = e.attributes[i];" +
+            "    if (a.name === 'style' || a.name.indexOf('on') === 0 || a.value.indexOf('data:') === 0) continue;" +
+            "    attrs[a.name] = cut(a.value);" +
+            "  }" +
+            "  var visible = e.checkVisibility ? e.checkVisibility() : e.getClientRects().length > 0;" +
+            "  out.push([e.tagName.toLowerCase(), item[1], visible ? 1 : 0, '', attrs]);" +
+            "  var index = out.length - 1;" +
+            "  count++;" +
+            "  for (var c = e.lastChild; c; c = c.previousSibling) {" +
+            "    if (c.nodeType === 1 || (c.nodeType === 3 && /\\S/.test(c.nodeValue))) stack.push([c, index]);" +
+            "  }" +
+            "}" +
+            "return JSON.stringify(out);";
+
+    private static final String VALIDATE_SCRIPT =
+            "var candidates = arguments[0], root = arguments[1] || document, result = [];" +
+            "function quote(v) { return '\"' + v.replace(/\\\\/g, '\\\\\\\\').replace(/\"/g, '\\\\\"') + '\"'; }" +
+            "function links(v, partial) {" +
+            "  return Array.prototype.filter.call(root.getElementsByTagName('a'), function (a) {" +
+            "    var t = (a.innerText || a.textContent || '').trim(); return partial ? t.indexOf(v) >= 0 : t === v; });" +
+            "}" +
+            "function find(type, v) {" +
+            "  switch (type) {" +
+            "    case 'id': return root.querySelectorAll('[id=' + quote(v) + ']');" +
+            "    case 'name': return root.querySelectorAll('[name=' + quote(v) + ']');" +
+            "    case 'className': return root.getElementsByClassName(v);" +
+            "    case 'tagName': return root.getElementsByTagName(v);" +
+            "    case 'cssSelector': return root.querySelectorAll(v);" +
+            "    case 'linkText': return links(v, false);" +
+            "    case 'partialLinkText': return links(v, true);" +
+            "    default:" +
+            "      var s = document.evaluate(v, root, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null), r = [];" +
+            "      for (var i = 0; i < s.snapshotLength; i++) r.push(s.snapshotItem(i));" +
+            "      return r;" +
+            "  }" +
+            "}" +
+            "for (var i = 0; i < candidates.length; i++) {" +
+            "  try {" +
+            "    var found = find(candidates[i][0], candidates[i][1]), visible = 0;" +
+            "    for (var j = 0; j < found.length; j++) {" +
+            "      var e = found[j];" +
+            "      if (e.checkVisibility ? e.checkVisibility() : e.getClientRects().length > 0) visible++;" +
+            "    }" +
+            "    result.push([found.length, visible]);" +
+            "  } catch (err) { result.push([-1, 0]); }" +
+            "}" +
+            "return JSON.stringify(result);";
+
+    private final JavascriptExecutor executor;
+    private final int maxElements;
+    private final int maxText;
+    private final boolean requireVisible;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public BrowserProbe(JavascriptExecutor executor, int maxElements, int maxText, boolean requireVisible) {
+        this.executor = executor;
+        this.maxElements = maxElements;
+        this.maxText = maxText;
+        this.requireVisible = requireVisible;
+    }
+
+    /**
+     * Probe for the driver, or null when it cannot run JavaScript or the probe is disabled
+     */
+    public static BrowserProbe forDriver(WebDriver driver) {
+        if (!(driver instanceof JavascriptExecutor) || !HealingConfig.getBoolean("healing.probe.enabled", true)) {
+            return null;
+        }
+        return new BrowserProbe((JavascriptExecutor) driver,
+                HealingConfig.getInt("healing.probe.maxElements", 20_000),
+                HealingConfig.getInt("healing.probe.maxText", 200),
+                HealingConfig.getBoolean("healing.probe.requireVisible", true));
+    }
+
+    /**
+     * Element inventory of the live page rebuilt as a jsoup Document, or null when the script failed
+     */
+    public Document captureInventory() {
+        return captureInventory(null);
+    }
+
+    /**
+     * Inventory of the element's subtree only (the whole page when null); the element is the document's root
+     */
+    public Document captureInventory(WebElement scope) {
+        try {
+            long start = System.nanoTime();
+            Object raw = executor.executeScript(INVENTORY_SCRIPT, maxElements, maxText, scope);
+            JsonNode rows = mapper.readTree(String.valueOf(raw));
+
+            Document document = new Document("");
+            List<Element> elements = new ArrayList<>(rows.size());
+            int count = 0;
+            for (JsonNode row : rows) {
+                int parent = row.get(1).asInt();
+                if ("#text".equals(row.get(0).asText())) {
+                    // Never a parent; the slot keeps the row indexes lined up
+                    elements.get(parent).appendText(row.get(3).asText());
+                    elements.add(null);
+                    continue;
+                }
+                Element element = new Element(row.get(0).asText());
+                Iterator<Map.Entry<String, JsonNode>> attributes = row.get(4).fields();
+                while (attributes.hasNext()) {
+                    Map.Entry<String, JsonNode> attribute = attributes.next();
+                    element.attr(attribute.getKey(), attribute.getValue().asText());
+                }
+                if (row.get(2).asInt() == 0) {
+                    element.attr(HIDDEN_MARKER, true);
+                }
+                (parent < 0 ? document : elements.get(parent)).appendChild(element);
+                elements.add(element);
+                count++;
+            }
+            Log.info("🧭 Captured " + count + " elements from the browser in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return document;
+        } catch (Exception e) {
+            Log.error("Browser inventory probe failed, falling back to page source", e);
+            return null;
+        }
+    }
+
+    /**
+     * Match counts of every candidate, evaluated together in the browser
+     */
+    public List<MatchCount> validate(List<org.openqa.selenium.By> candidates) {
+        return validate(candidates, null);
+    }
+
+    /**
+     * Match counts of every candidate searched from the element, as element.findElements would (the page when null)
+     */
+    public List<MatchCount> validate(List<org.openqa.selenium.By> candidates, WebElement scope) {
+        List<MatchCount> counts = new ArrayList<>(candidates.size());
+        if (candidates.isEmpty()) return counts;
+        List<List<String>> arguments = new ArrayList<>(candidates.size());
+        for (org.openqa.selenium.By candidate : candidates) {
+            arguments.add(List.of(Locators.typeOf(candidate), Locators.valueOf(candidate)));
+        }
+        try {
+            JsonNode rows = mapper.readTree(String.valueOf(executor.executeScript(VALIDATE_SCRIPT, arguments, scope)));
+            for (JsonNode row : rows) {
+                counts.add(new MatchCount(row.get(0).asInt(), row.get(1).asInt()));
+            }
+        } catch (Exception e) {
+            Log.error("Browser candidate validation failed", e);
+            candidates.forEach(candidate -> counts.add(new MatchCount(-1, 0)));
+        }
+        return counts;
+    }
+
+    /**
+     * True when the candidate matches exactly one element (visible, unless that requirement is off)
+     */
+    public boolean isAcceptable(MatchCount count) {
+        return count.getMatches() == 1 && (!requireVisible || count.getVisible() == 1);
+    }
+
+    public static final class MatchCount {
+        private final int matches;
+        private final int visible;
+
+        MatchCount(int matches, int visible) {
+            this.matches = matches;
+            this.visible = visible;
+        }
+
+        /**
+         * Elements matched, or -1 when the locator is invalid
+         */
+        public int getMatches() {
+            return matches;
+        }
+
+        public int getVisible() {
+            return visible;
+        }
+
+        @Override
+        public String toString() {
+            return matches < 0 ? "invalid" : matches + " match(es), " + visible + " visible";
+        }
+    }
+}
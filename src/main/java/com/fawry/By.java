@@ -1,20 +1,28 @@
 package com.fawry;
 
 import com.fawry.utilities.Log;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 import org.openqa.selenium.*;
 import org.openqa.selenium.NoSuchElementException;
-import org.openqa.selenium.support.ui.ExpectedConditions;
-import org.openqa.selenium.support.ui.WebDriverWait;
+import org.openqa.selenium.support.ui.FluentWait;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
 public class By extends org.openqa.selenium.By {
-    private static WebDriver driver;
     private final org.openqa.selenium.By originalBy;
-    private static final Map<String, org.openqa.selenium.By> healedCache = new ConcurrentHashMap();
-    private static final Duration DEFAULT_WAIT = Duration.ofSeconds(10L);
+    private static final HealedLocatorStore healedStore = HealedLocatorStore.getDefault();
+    private static final WaitBudget waitBudget = WaitBudget.getDefault();
+    private static final SingleFlight<org.openqa.selenium.By> healFlights = new SingleFlight<>();
+    private static final NegativeHealCache failedHeals = NegativeHealCache.getDefault();
+    private static final FingerprintRecorder fingerprints = FingerprintRecorder.getDefault();
+    private static final HealingMetrics metrics = HealingMetrics.getDefault();
+    // Runner-up candidates of the last model heal of each locator on each page, best first
+    private static final Map<String, Deque<org.openqa.selenium.By>> healFallbacks = new ConcurrentHashMap<>();
 
     private By(org.openqa.selenium.By by) {
         this.originalBy = by;
@@ -52,8 +60,96 @@ public class By extends org.openqa.selenium.By {
         return new By(org.openqa.selenium.By.partialLinkText(partialLinkText));
     }
 
+    /**
+     * Bind the driver of the current test thread. Lookups made through a WebDriver or one of its
+     * elements heal against that session directly; this binding covers other search contexts and
+     * {@link #healAll(Collection)}. Other threads never see it, each binds its own.
+     */
     public static void setDriver(WebDriver webDriver) {
-        driver = webDriver;
+        HealingContext.setDriver(webDriver);
+    }
+
+    /**
+     * Session the lookup runs in: the context itself, the driver behind an element, the thread's driver.
+     * There is no process-wide fallback, under parallel runs it would be another test's browser.
+     *
+     * @throws IllegalStateException when none of them gives a driver
+     */
+    static WebDriver resolveDriver(SearchContext context) {
+        WebDriver driver = findDriver(context);
+        if (driver == null) {
+            throw new IllegalStateException("No WebDriver to heal with on thread " + Thread.currentThread().getName()
+                    + ": call By.setDriver(driver) on this thread, or look up from the driver or one of its elements");
+        }
+        return driver;
+    }
+
+    /**
+     * {@link #resolveDriver(SearchContext)} for callers that can do without a driver, null when there is none
+     */
+    private static WebDriver findDriver(SearchContext context) {
+        if (context instanceof WebDriver) {
+            return (WebDriver) context;
+        }
+        if (context instanceof WrapsDriver) {
+            return ((WrapsDriver) context).getWrappedDriver();
+        }
+        return HealingContext.getDriver();
+    }
+
+    private static WebElement waitForElement(SearchContext context, org.openqa.selenium.By by, Duration timeout) {
+        return new FluentWait<>(context)
+                .withTimeout(timeout)
+                .ignoring(NoSuchElementException.class)
+                .until(by::findElement);
+    }
+
+    private static List<WebElement> waitForElements(SearchContext context, org.openqa.selenium.By by, Duration timeout) {
+        return new FluentWait<>(context)
+                .withTimeout(timeout)
+                .until(searchContext -> {
+                    List<WebElement> elements = by.findElements(searchContext);
+                    return elements.isEmpty() ? null : elements;
+                });
+    }
+
+    /**
+     * Wait for the original locator within its learned budget and record how long it took
+     */
+    private WebElement waitForOriginal(SearchContext context, String locatorKey) {
+        long start = System.nanoTime();
+        try {
+            WebElement element = waitForElement(context, this.originalBy, waitBudget.budgetFor(locatorKey));
+            long elapsed = elapsedMillis(start);
+            waitBudget.recordAppearance(locatorKey, elapsed);
+            metrics.recordLookupWait(elapsed);
+            return element;
+        } catch (TimeoutException e) {
+            long elapsed = elapsedMillis(start);
+            waitBudget.recordTimeout(locatorKey, elapsed);
+            metrics.recordLookupWait(elapsed);
+            throw e;
+        }
+    }
+
+    private List<WebElement> waitForOriginals(SearchContext context, String locatorKey) {
+        long start = System.nanoTime();
+        try {
+            List<WebElement> elements = waitForElements(context, this.originalBy, waitBudget.budgetFor(locatorKey));
+            long elapsed = elapsedMillis(start);
+            waitBudget.recordAppearance(locatorKey, elapsed);
+            metrics.recordLookupWait(elapsed);
+            return elements;
+        } catch (TimeoutException e) {
+            long elapsed = elapsedMillis(start);
+            waitBudget.recordTimeout(locatorKey, elapsed);
+            metrics.recordLookupWait(elapsed);
+            throw e;
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
     }
 
     public WebElement findElement(SearchContext context) {
@@ -61,22 +157,24 @@ public class By extends org.openqa.selenium.By {
         if (!HealingContext.isHealingEnabled()) {
             return this.originalBy.findElement(context);
         }
+        if (isKnownFailure(locatorKey, context)) {
+            // Healing already failed here: one immediate attempt, no wait and no heal
+            return this.originalBy.findElement(context);
+        }
+        long start = System.nanoTime();
+        org.openqa.selenium.By cachedBy = healedStore.get(storeKey(locatorKey, context));
+        metrics.increment(cachedBy != null ? HealingMetrics.HEALED_STORE_HITS : HealingMetrics.HEALED_STORE_MISSES);
         try {
-            if (healedCache.containsKey(locatorKey)) {
-                return ((org.openqa.selenium.By) healedCache.get(locatorKey)).findElement(context);
-            } else {
-                WebDriverWait wait = new WebDriverWait(driver, DEFAULT_WAIT);
-                return (WebElement) wait.until(ExpectedConditions.presenceOfElementLocated(this.originalBy));
-            }
+            WebElement element = cachedBy != null ? cachedBy.findElement(context) : waitForOriginal(context, locatorKey);
+            return recordFingerprint(locatorKey, element, context);
         } catch (InvalidElementStateException | NoSuchElementException | TimeoutException e) {
             Log.info("⚠️ Element not found after wait: " + locatorKey);
             Log.info("\ud83d\udd01 Attempting healing...");
-            org.openqa.selenium.By healedBy = this.healLocator(locatorKey);
+            org.openqa.selenium.By healedBy = this.heal(locatorKey, cachedBy, context, elapsedMillis(start));
             if (healedBy != null) {
-                healedCache.put(locatorKey, healedBy);
                 Log.info("✅ Healing successful. Cached: " + String.valueOf(healedBy));
-                WebDriverWait wait = new WebDriverWait(driver, DEFAULT_WAIT);
-                return (WebElement) wait.until(ExpectedConditions.presenceOfElementLocated(healedBy));
+                // The heal was made against the current page, so a short wait is enough
+                return recordFingerprint(locatorKey, waitForElement(context, healedBy, waitBudget.postHealBudget()), context);
             } else {
                 throw new NoSuchElementException("❌ Failed to heal locator: " + locatorKey, e);
             }
@@ -88,86 +186,341 @@ public class By extends org.openqa.selenium.By {
         if (!HealingContext.isHealingEnabled()) {
             return this.originalBy.findElements(context);
         }
+        if (isKnownFailure(locatorKey, context)) {
+            List<WebElement> elements = this.originalBy.findElements(context);
+            if (elements.isEmpty()) {
+                throw new NoSuchElementException("❌ Healing already failed for elements of locator: " + locatorKey);
+            }
+            return elements;
+        }
+        long start = System.nanoTime();
+        org.openqa.selenium.By cachedBy = healedStore.get(storeKey(locatorKey, context));
+        metrics.increment(cachedBy != null ? HealingMetrics.HEALED_STORE_HITS : HealingMetrics.HEALED_STORE_MISSES);
         try {
-            if (healedCache.containsKey(locatorKey)) {
-                return ((org.openqa.selenium.By) healedCache.get(locatorKey)).findElements(context);
+            if (cachedBy != null) {
+                return cachedBy.findElements(context);
             } else {
-                WebDriverWait wait = new WebDriverWait(driver, DEFAULT_WAIT);
-                return (List) wait.until(ExpectedConditions.presenceOfAllElementsLocatedBy(this.originalBy));
+                return waitForOriginals(context, locatorKey);
             }
         } catch (InvalidElementStateException | NoSuchElementException | TimeoutException e) {
             Log.info("⚠️ Elements not found after wait: " + locatorKey);
             Log.info("\ud83d\udd01 Attempting healing...");
-            org.openqa.selenium.By healedBy = this.healLocator(locatorKey);
+            org.openqa.selenium.By healedBy = this.heal(locatorKey, cachedBy, context, elapsedMillis(start));
             if (healedBy != null) {
-                healedCache.put(locatorKey, healedBy);
                 Log.info("✅ Healing successful for elements. Cached: " + String.valueOf(healedBy));
-                WebDriverWait wait = new WebDriverWait(driver, DEFAULT_WAIT);
-                return (List) wait.until(ExpectedConditions.presenceOfAllElementsLocatedBy(healedBy));
+                return waitForElements(context, healedBy, waitBudget.postHealBudget());
             } else {
                 throw new NoSuchElementException("❌ Failed to heal elements for locator: " + locatorKey, e);
             }
         }
     }
 
-    private org.openqa.selenium.By healLocator(String rawLocator) {
+    /**
+     * {@link #findElement(SearchContext)} on a {@link HealingExecutor} thread, so the wait, the page
+     * capture and the model call of a heal overlap with the test's other work. The future fails with
+     * the NoSuchElementException findElement would throw.
+     * <p>
+     * The lookup drives the session from another thread, and a WebDriver is not thread-safe: async
+     * lookups on one session run one after the other, and the caller must not use the driver or its
+     * elements until the future completes. Work that does not touch the browser can go on meanwhile.
+     */
+    public CompletableFuture<WebElement> findElementAsync(SearchContext context) {
+        return HealingExecutor.submit(findDriver(context), () -> findElement(context));
+    }
+
+    /**
+     * {@link #findElements(SearchContext)} on a {@link HealingExecutor} thread, with the same rule as
+     * {@link #findElementAsync(SearchContext)}: leave the driver alone until the future completes
+     */
+    public CompletableFuture<List<WebElement>> findElementsAsync(SearchContext context) {
+        return HealingExecutor.submit(findDriver(context), () -> findElements(context));
+    }
+
+    /**
+     * {@link #healAll(WebDriver, Collection)} in the background, e.g. right after navigating to a page,
+     * so its broken locators are healed by the time the test looks them up. Until the future completes
+     * the driver must be left alone, as for {@link #findElementAsync(SearchContext)}.
+     */
+    public static CompletableFuture<Map<By, org.openqa.selenium.By>> healAllAsync(WebDriver driver, Collection<By> locators) {
+        List<By> copy = new ArrayList<>(locators);
+        return HealingExecutor.submit(driver, () -> healAll(driver, copy));
+    }
+
+    /**
+     * Heal every broken locator of the current page of the thread's driver at once, see {@link #healAll(WebDriver, Collection)}
+     *
+     * @throws IllegalStateException when no driver is bound to this thread
+     */
+    public static Map<By, org.openqa.selenium.By> healAll(Collection<By> locators) {
+        return healAll(resolveDriver(null), locators);
+    }
+
+    /**
+     * Pre-flight for a page object after a redesign: find which of the locators no longer match,
+     * capture the page once and heal all of them with one model prompt instead of one per locator.
+     * The heals are cached together, so the following lookups neither wait nor heal.
+     *
+     * @return the healed locator of every locator that was broken and could be healed
+     */
+    public static Map<By, org.openqa.selenium.By> healAll(WebDriver driver, Collection<By> locators) {
+        Map<By, org.openqa.selenium.By> healed = new LinkedHashMap<>();
+        if (driver == null) {
+            Log.info("❌ WebDriver not set. Cannot heal locators.");
+            return healed;
+        }
+        if (!HealingContext.isHealingEnabled() || locators.isEmpty()) {
+            return healed;
+        }
+        BrowserProbe probe = BrowserProbe.forDriver(driver);
+        List<By> broken = findBroken(driver, new ArrayList<>(new LinkedHashSet<>(locators)), probe);
+        if (broken.isEmpty()) {
+            Log.info("✅ All " + locators.size() + " locators match, nothing to heal");
+            return healed;
+        }
+        Log.info("\ud83e\udd16 Batch healing " + broken.size() + " of " + locators.size() + " locators");
+        long start = System.nanoTime();
+        String page = pageIdentity(driver);
+
         try {
-            if (driver == null) {
-                Log.info("❌ WebDriver not set. Cannot capture page source.");
-                return null;
-            }
+            List<String> brokenKeys = new ArrayList<>();
+            for (By by : broken) brokenKeys.add(by.originalBy.toString());
+            Document snapshot = new HtmlGenerator().capturePage(driver, probe, brokenKeys, page);
 
-            Log.info("\ud83e\udd16 Healing locator: " + rawLocator);
-            String cleanedLocator = rawLocator.replace("By.xpath: ", "").replace("By.id: ", "").replace("By.name: ", "").replace("By.cssSelector: ", "").replace("By.className: ", "").replace("By.tagName: ", "").replace("By.linkText: ", "").replace("By.partialLinkText: ", "").trim();
-            HtmlGenerator htmlGenerator = new HtmlGenerator();
-            htmlGenerator.clearHTMLSnapshotsDirectory();
-            htmlGenerator.generatePageHTML(driver.getPageSource());
-            String healedLocator = (new AIIntegrationService()).autoAnalyzeAndFix(cleanedLocator);
-            if (healedLocator != null && !healedLocator.isEmpty()) {
-                Log.info("\ud83c\udf10 AI returned healed locator: " + healedLocator);
-                if (healedLocator.startsWith("By.id(")) {
-                    String value = healedLocator.substring(7, healedLocator.length() - 2);
-                    return org.openqa.selenium.By.id(value);
+            // Local heals first, checked together in one browser call
+            LocalHealer localHealer = new LocalHealer();
+            Map<By, org.openqa.selenium.By> local = new LinkedHashMap<>();
+            for (By by : broken) {
+                String locatorKey = by.originalBy.toString();
+                org.openqa.selenium.By locallyHealed = localHealer.heal(locatorKey, fingerprints.get(locatorKey), snapshot, null);
+                if (locallyHealed == null) {
+                    locallyHealed = localHealer.heal(locatorKey, snapshot);
                 }
-
-                if (healedLocator.startsWith("By.xpath(")) {
-                    String value = healedLocator.substring(9, healedLocator.length() - 2);
-                    return org.openqa.selenium.By.xpath(value);
+                if (locallyHealed != null) local.put(by, locallyHealed);
+            }
+            List<org.openqa.selenium.By> localCandidates = new ArrayList<>(local.values());
+            List<BrowserProbe.MatchCount> localCounts = probe == null ? null : probe.validate(localCandidates);
+            int position = 0;
+            for (Map.Entry<By, org.openqa.selenium.By> entry : local.entrySet()) {
+                BrowserProbe.MatchCount count = localCounts == null ? null : localCounts.get(position++);
+                if (count == null || probe.isAcceptable(count)) {
+                    healed.put(entry.getKey(), entry.getValue());
+                    metrics.increment(HealingMetrics.HEALED_BY_LOCAL);
+                } else {
+                    Log.info("⚠️ Rejected healed locator " + entry.getValue() + ": " + count);
                 }
+            }
 
-                if (healedLocator.startsWith("By.name(")) {
-                    String value = healedLocator.substring(8, healedLocator.length() - 2);
-                    return org.openqa.selenium.By.name(value);
+            // The rest goes to the model in one prompt
+            List<By> remaining = new ArrayList<>();
+            List<String> damaged = new ArrayList<>();
+            for (By by : broken) {
+                if (!healed.containsKey(by)) {
+                    remaining.add(by);
+                    // Keep the "By.type: " prefix, the batch mixes locator types
+                    damaged.add(by.originalBy.toString());
                 }
-
-                if (healedLocator.startsWith("By.cssSelector(")) {
-                    String value = healedLocator.substring(15, healedLocator.length() - 2);
-                    return org.openqa.selenium.By.cssSelector(value);
+            }
+            if (!remaining.isEmpty()) {
+                AIIntegrationService aiService = new AIIntegrationService();
+                Map<String, List<org.openqa.selenium.By>> answers = aiService.analyzeAndGenerateLocators(damaged, snapshot);
+                List<org.openqa.selenium.By> allCandidates = new ArrayList<>();
+                for (String locator : damaged) {
+                    allCandidates.addAll(answers.getOrDefault(locator, List.of()));
                 }
-
-                if (healedLocator.startsWith("By.className(")) {
-                    String value = healedLocator.substring(13, healedLocator.length() - 2);
-                    return org.openqa.selenium.By.className(value);
+                List<BrowserProbe.MatchCount> counts = probe == null ? null : probe.validate(allCandidates);
+                int offset = 0;
+                for (int i = 0; i < remaining.size(); i++) {
+                    List<org.openqa.selenium.By> candidates = answers.getOrDefault(damaged.get(i), List.of());
+                    if (candidates.isEmpty()) continue;
+                    List<BrowserProbe.MatchCount> candidateCounts = counts == null ? null : counts.subList(offset, offset + candidates.size());
+                    offset += candidates.size();
+                    org.openqa.selenium.By best = pickBestCandidate(pageKey(damaged.get(i), page), candidates, probe, candidateCounts);
+                    if (best != null) {
+                        healed.put(remaining.get(i), best);
+                        metrics.increment(HealingMetrics.HEALED_BY_MODEL);
+                    }
                 }
+                aiService.reportOutcome(healed.keySet().stream().anyMatch(remaining::contains));
+            }
+        } catch (Exception e) {
+            Log.info("❌ Batch healing failed");
+            e.printStackTrace();
+        }
 
-                if (healedLocator.startsWith("By.tagName(")) {
-                    String value = healedLocator.substring(11, healedLocator.length() - 2);
-                    return org.openqa.selenium.By.tagName(value);
-                }
+        // One capture and one prompt served all of them, so each is charged an equal share
+        long share = elapsedMillis(start) / broken.size();
+        for (By by : broken) {
+            String locatorKey = by.originalBy.toString();
+            org.openqa.selenium.By healedBy = healed.get(by);
+            metrics.recordHeal(locatorKey, page, share, healedBy != null);
+            if (healedBy != null) {
+                healedStore.put(locatorKey, healedBy);
+                failedHeals.invalidate(storeKey(locatorKey, driver));
+            } else {
+                failedHeals.recordFailure(storeKey(locatorKey, driver), page);
+            }
+        }
+        Log.info("✅ Batch healing fixed " + healed.size() + " of " + broken.size() + " broken locators");
+        return healed;
+    }
 
-                if (healedLocator.startsWith("By.linkText(")) {
-                    String value = healedLocator.substring(11, healedLocator.length() - 2);
-                    return org.openqa.selenium.By.linkText(value);
+    /**
+     * Locators whose cached heal, or else original, matches nothing on the page; one browser call with a probe
+     */
+    private static List<By> findBroken(WebDriver driver, List<By> locators, BrowserProbe probe) {
+        List<org.openqa.selenium.By> effective = new ArrayList<>(locators.size());
+        for (By by : locators) {
+            org.openqa.selenium.By cachedBy = healedStore.get(by.originalBy.toString());
+            effective.add(cachedBy != null ? cachedBy : by.originalBy);
+        }
+        List<BrowserProbe.MatchCount> counts = probe == null ? null : probe.validate(effective);
+        List<By> broken = new ArrayList<>();
+        for (int i = 0; i < locators.size(); i++) {
+            boolean matches;
+            if (counts != null) {
+                matches = counts.get(i).getMatches() > 0;
+            } else {
+                try {
+                    matches = !effective.get(i).findElements(driver).isEmpty();
+                } catch (WebDriverException e) {
+                    matches = false;
                 }
+            }
+            if (!matches) broken.add(locators.get(i));
+        }
+        return broken;
+    }
 
-                if (healedLocator.startsWith("By.partialLinkText(")) {
-                    String value = healedLocator.substring(11, healedLocator.length() - 2);
-                    return org.openqa.selenium.By.partialLinkText(value);
-                }
+    /**
+     * Let the recorder learn what the found element looks like (sampled, on this thread: the driver is not thread-safe)
+     */
+    private static WebElement recordFingerprint(String locatorKey, WebElement element, SearchContext context) {
+        if (fingerprints.isEnabled()) {
+            fingerprints.record(locatorKey, element, findDriver(context));
+        }
+        return element;
+    }
+
+    /**
+     * Heal once per locator and page: threads that break on the same locator of the same page
+     * at the same time wait for the first one's result instead of starting their own heal.
+     * triedBy is the stored heal the caller already found broken, null when there was none.
+     */
+    private org.openqa.selenium.By heal(String locatorKey, org.openqa.selenium.By triedBy, SearchContext context, long waitMillis) {
+        WebDriver driver = resolveDriver(context);
+        String page = pageIdentity(driver);
+        String storeKey = storeKey(locatorKey, context);
+        org.openqa.selenium.By fallback = tryFallbacks(storeKey, page, context, driver);
+        metrics.recordWait(locatorKey, page, waitMillis);
+        if (fallback != null) {
+            metrics.increment(HealingMetrics.HEALED_BY_FALLBACK);
+            return fallback;
+        }
+        String flightKey = pageKey(storeKey, page);
+        if (healFlights.isRunning(flightKey)) {
+            Log.info("⏳ Waiting for the heal already running for: " + locatorKey);
+        }
+        return healFlights.run(flightKey, () -> {
+            // A heal that finished between the caller's lookup and this flight is good enough
+            org.openqa.selenium.By stored = healedStore.get(storeKey);
+            if (stored != null && !stored.equals(triedBy)) {
+                Log.info("♻️ Using the heal another thread just stored for: " + locatorKey);
+                return stored;
+            }
+            long start = System.nanoTime();
+            org.openqa.selenium.By healedBy = this.healLocator(locatorKey, page, driver, context);
+            if (healedBy != null && appearedLate(context)) {
+                // Not broken, only slower than its budget: teach the budget instead of persisting a heal
+                Log.info("🐢 Original locator appeared during the heal, keeping it: " + locatorKey);
+                waitBudget.recordAppearance(locatorKey, waitMillis + elapsedMillis(start));
+                return this.originalBy;
+            }
+            metrics.recordHeal(locatorKey, page, elapsedMillis(start), healedBy != null);
+            if (healedBy != null) {
+                healedStore.put(storeKey, healedBy);
+                failedHeals.invalidate(storeKey);
+            } else {
+                failedHeals.recordFailure(storeKey, page);
+            }
+            return healedBy;
+        });
+    }
+
+    private boolean appearedLate(SearchContext context) {
+        try {
+            return !this.originalBy.findElements(context).isEmpty();
+        } catch (WebDriverException e) {
+            return false;
+        }
+    }
+
+    private static boolean isKnownFailure(String locatorKey, SearchContext context) {
+        if (failedHeals.isKnownFailure(storeKey(locatorKey, context), () -> pageIdentity(findDriver(context)))) {
+            Log.info("⛔ Skipping wait and heal, healing already failed on this page: " + locatorKey);
+            metrics.increment(HealingMetrics.KNOWN_FAILURE_SKIPS);
+            return true;
+        }
+        return false;
+    }
+
+    private static String pageIdentity(WebDriver driver) {
+        if (driver == null) return "";
+        try {
+            String url = driver.getCurrentUrl();
+            return url == null ? "" : url;
+        } catch (WebDriverException e) {
+            return "";
+        }
+    }
+
+    private org.openqa.selenium.By healLocator(String rawLocator, String page, WebDriver driver, SearchContext context) {
+        try {
+            if (driver == null) {
+                Log.info("❌ WebDriver not set. Cannot capture page source.");
+                return null;
+            }
+
+            Log.info("\ud83e\udd16 Healing locator: " + rawLocator);
+            String cleanedLocator = Locators.clean(rawLocator);
+            BrowserProbe probe = BrowserProbe.forDriver(driver);
+            HtmlGenerator htmlGenerator = new HtmlGenerator();
 
-                Log.info("⚠️ Unknown locator type. Defaulting to XPath.");
-                return org.openqa.selenium.By.xpath(healedLocator);
+            // A lookup from an element (a table row, a modal) heals within that element's subtree only
+            WebElement scope = null;
+            Document snapshot = null;
+            if (isScoped(context)) {
+                snapshot = htmlGenerator.captureElement((WebElement) context, probe, List.of(rawLocator), page);
+                if (snapshot != null) {
+                    scope = (WebElement) context;
+                    Log.info("\ud83c\udfaf Healing within the search context element only");
+                }
+            }
+            if (snapshot == null) {
+                snapshot = htmlGenerator.capturePage(driver, probe, List.of(rawLocator), page);
+            }
+            LocalHealer localHealer = new LocalHealer();
+            Element scopeRoot = scope == null ? null : snapshot.child(0);
+            // What the element looked like while the locator worked beats guessing from the locator
+            org.openqa.selenium.By fingerprinted = localHealer.heal(rawLocator, fingerprints.get(rawLocator), snapshot, scopeRoot);
+            if (fingerprinted != null && isValidInBrowser(fingerprinted, probe, scope)) {
+                metrics.increment(HealingMetrics.HEALED_BY_FINGERPRINT);
+                return fingerprinted;
             }
+            org.openqa.selenium.By locallyHealed = localHealer.heal(rawLocator, snapshot, scopeRoot);
+            if (locallyHealed != null && isValidInBrowser(locallyHealed, probe, scope)) {
+                metrics.increment(HealingMetrics.HEALED_BY_LOCAL);
+                return locallyHealed;
+            }
+            AIIntegrationService aiService = new AIIntegrationService();
+            List<org.openqa.selenium.By> candidates = aiService.analyzeAndGenerateLocators(cleanedLocator, snapshot, scope != null);
+            org.openqa.selenium.By best = null;
+            if (!candidates.isEmpty()) {
+                Log.info("\ud83c\udf10 AI returned healed locators: " + candidates);
+                best = pickBestCandidate(pageKey(storeKey(rawLocator, context), page), candidates, probe, scope);
+                if (best != null) metrics.increment(HealingMetrics.HEALED_BY_MODEL);
+            }
+            aiService.reportOutcome(best != null);
+            return best;
         } catch (Exception e) {
             Log.info("❌ Healing process failed for: " + rawLocator);
             e.printStackTrace();
@@ -176,6 +529,111 @@ public class By extends org.openqa.selenium.By {
         return null;
     }
 
+    /**
+     * First candidate that is valid in the live page; the other valid ones are kept as fallbacks
+     * so a later breakage of the chosen one needs no new model call
+     */
+    private static org.openqa.selenium.By pickBestCandidate(String fallbackKey, List<org.openqa.selenium.By> candidates,
+                                                            BrowserProbe probe, WebElement scope) {
+        return pickBestCandidate(fallbackKey, candidates, probe, probe == null ? null : probe.validate(candidates, scope));
+    }
+
+    private static org.openqa.selenium.By pickBestCandidate(String fallbackKey, List<org.openqa.selenium.By> candidates,
+                                                            BrowserProbe probe, List<BrowserProbe.MatchCount> counts) {
+        List<org.openqa.selenium.By> valid = new ArrayList<>();
+        if (probe == null) {
+            valid.addAll(candidates);
+        } else {
+            for (int i = 0; i < candidates.size(); i++) {
+                if (probe.isAcceptable(counts.get(i))) {
+                    valid.add(candidates.get(i));
+                } else {
+                    Log.info("⚠️ Rejected healed locator " + candidates.get(i) + ": " + counts.get(i));
+                }
+            }
+        }
+        if (valid.isEmpty()) {
+            return null;
+        }
+        if (valid.size() > 1) {
+            healFallbacks.put(fallbackKey, new ConcurrentLinkedDeque<>(valid.subList(1, valid.size())));
+        }
+        return valid.get(0);
+    }
+
+    /**
+     * Promote the first runner-up of an earlier heal on this page that still matches one visible element, without waiting
+     */
+    private static org.openqa.selenium.By tryFallbacks(String storeKey, String page, SearchContext context, WebDriver driver) {
+        String fallbackKey = pageKey(storeKey, page);
+        Deque<org.openqa.selenium.By> fallbacks = healFallbacks.get(fallbackKey);
+        if (fallbacks == null) return null;
+        BrowserProbe probe = BrowserProbe.forDriver(driver);
+        WebElement scope = isScoped(context) ? (WebElement) context : null;
+        org.openqa.selenium.By fallback;
+        while ((fallback = fallbacks.poll()) != null) {
+            try {
+                if (isUniqueAndVisible(fallback, context, probe, scope)) {
+                    healedStore.put(storeKey, fallback);
+                    Log.info("♻️ Switched to fallback locator " + fallback + " for: " + storeKey);
+                    return fallback;
+                }
+                Log.info("⚠️ Fallback locator no longer matches one visible element: " + fallback);
+            } catch (WebDriverException e) {
+                Log.info("⚠️ Fallback locator failed: " + fallback);
+            }
+        }
+        healFallbacks.remove(fallbackKey, fallbacks);
+        return null;
+    }
+
+    /**
+     * The check candidates pass when they are picked: exactly one match, visible unless that requirement is off
+     */
+    private static boolean isUniqueAndVisible(org.openqa.selenium.By locator, SearchContext context,
+                                              BrowserProbe probe, WebElement scope) {
+        if (probe != null) {
+            return probe.isAcceptable(probe.validate(List.of(locator), scope).get(0));
+        }
+        List<WebElement> matches = locator.findElements(context);
+        return matches.size() == 1
+                && (!HealingConfig.getBoolean("healing.probe.requireVisible", true) || matches.get(0).isDisplayed());
+    }
+
+    /**
+     * Whether a lookup from this context heals within the context element's subtree only
+     */
+    private static boolean isScoped(SearchContext context) {
+        return context instanceof WebElement && !(context instanceof WebDriver)
+                && HealingConfig.getBoolean("healing.scope.enabled", true);
+    }
+
+    /**
+     * Key a heal is stored under: a heal made within a search context element only holds for
+     * lookups from an element, so it is kept apart from the page-wide heal of the same locator
+     */
+    private static String storeKey(String locatorKey, SearchContext context) {
+        return isScoped(context) ? locatorKey + " within element" : locatorKey;
+    }
+
+    /**
+     * Heals, their fallbacks and their single flights are per locator and page
+     */
+    private static String pageKey(String locatorKey, String page) {
+        return locatorKey + " @ " + page;
+    }
+
+    /**
+     * Check a healed locator in the live page; without a probe the post-heal wait is the only check
+     */
+    private static boolean isValidInBrowser(org.openqa.selenium.By healedBy, BrowserProbe probe, WebElement scope) {
+        if (probe == null) return true;
+        BrowserProbe.MatchCount count = probe.validate(List.of(healedBy), scope).get(0);
+        if (probe.isAcceptable(count)) return true;
+        Log.info("⚠️ Rejected healed locator " + healedBy + ": " + count);
+        return false;
+    }
+
     public String toString() {
         return "ByHealable(" + this.originalBy.toString() + ")";
     }
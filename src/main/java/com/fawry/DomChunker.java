@@ -0,0 +1,150 @@
+package com.fawry;
+
+import org.jsoup.nodes.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a page snapshot that does not fit the model context into token-bounded chunks.
+ * <p>
+ * A subtree that fits the budget is never cut. Larger ones are split at their children, and every
+ * chunk repeats the ancestor tags (with their attributes, without their other children) of what it
+ * holds, so each chunk is valid HTML that keeps the structure a locator is built from.
+ * Consecutive subtrees are packed into one chunk until the budget is reached.
+ * Subtree sizes are summed bottom-up in one pass, so the page is serialized about once, not once per level.
+ */
+public class DomChunker {
+    private final int maxTokens;
+
+    public DomChunker(int maxTokens) {
+        this.maxTokens = Math.max(1, maxTokens);
+    }
+
+    /**
+     * HTML of each chunk, in document order
+     */
+    public List<String> chunk(Document document) {
+        Map<Node, Integer> sizes = new IdentityHashMap<>();
+        for (Node child : document.childNodes()) {
+            measure(child, sizes);
+        }
+        List<Unit> units = new ArrayList<>();
+        for (Node child : document.childNodes()) {
+            split(child, new ArrayList<>(), 0, sizes, units);
+        }
+
+        List<String> chunks = new ArrayList<>();
+        List<Unit> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (Unit unit : units) {
+            if (!current.isEmpty() && currentTokens + unit.tokens > maxTokens) {
+                chunks.add(render(current));
+                current.clear();
+                currentTokens = 0;
+            }
+            current.add(unit);
+            currentTokens += unit.tokens;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(render(current));
+        }
+        return chunks;
+    }
+
+    /**
+     * Characters of the node's HTML, near enough: an element adds its tags to its children's sizes
+     */
+    private static int measure(Node node, Map<Node, Integer> sizes) {
+        int size;
+        if (node instanceof Element) {
+            Element element = (Element) node;
+            size = openTag(element).length() + (element.tag().isSelfClosing() ? 0 : element.tagName().length() + 3);
+            for (Node child : element.childNodes()) {
+                size += measure(child, sizes);
+            }
+        } else if (node instanceof TextNode) {
+            size = ((TextNode) node).getWholeText().length();
+        } else {
+            size = node.outerHtml().length();
+        }
+        sizes.put(node, size);
+        return size;
+    }
+
+    private void split(Node node, List<Element> ancestors, int overhead, Map<Node, Integer> sizes, List<Unit> units) {
+        if (node instanceof Comment || node instanceof DocumentType) return;
+        if (node instanceof TextNode && ((TextNode) node).isBlank()) return;
+
+        boolean splittable = node instanceof Element && node.childNodeSize() > 0;
+        // The summed size leaves out escaping and pretty-printing, so a subtree that looks like it fits is checked once serialized
+        if (splittable && TokenEstimator.estimate(sizes.get(node)) + overhead > maxTokens) {
+            splitChildren((Element) node, ancestors, overhead, sizes, units);
+            return;
+        }
+        String html = node.outerHtml();
+        int tokens = TokenEstimator.estimate(html);
+        if (splittable && tokens + overhead > maxTokens) {
+            splitChildren((Element) node, ancestors, overhead, sizes, units);
+            return;
+        }
+        // A single element or text larger than the budget on its own is cut to fit
+        int room = TokenEstimator.maxChars(Math.max(1, maxTokens - overhead));
+        String content = html.length() > room ? html.substring(0, room) : html;
+        units.add(new Unit(List.copyOf(ancestors), content, TokenEstimator.estimate(content) + overhead));
+    }
+
+    private void splitChildren(Element element, List<Element> ancestors, int overhead, Map<Node, Integer> sizes, List<Unit> units) {
+        List<Element> path = new ArrayList<>(ancestors);
+        path.add(element);
+        int childOverhead = overhead + TokenEstimator.estimate(openTag(element)) + 1;
+        for (Node child : element.childNodes()) {
+            split(child, path, childOverhead, sizes, units);
+        }
+    }
+
+    /**
+     * Units under their ancestors, opening and closing ancestor tags only where the path changes
+     */
+    private static String render(List<Unit> units) {
+        StringBuilder html = new StringBuilder();
+        List<Element> open = new ArrayList<>();
+        for (Unit unit : units) {
+            int common = 0;
+            while (common < open.size() && common < unit.ancestors.size() && open.get(common) == unit.ancestors.get(common)) {
+                common++;
+            }
+            for (int i = open.size() - 1; i >= common; i--) {
+                html.append("</").append(open.remove(i).tagName()).append('>');
+            }
+            for (int i = common; i < unit.ancestors.size(); i++) {
+                Element ancestor = unit.ancestors.get(i);
+                html.append(openTag(ancestor));
+                open.add(ancestor);
+            }
+            html.append(unit.html);
+        }
+        for (int i = open.size() - 1; i >= 0; i--) {
+            html.append("</").append(open.get(i).tagName()).append('>');
+        }
+        return html.toString();
+    }
+
+    private static String openTag(Element element) {
+        return "<" + element.tagName() + element.attributes().html() + ">";
+    }
+
+    private static final class Unit {
+        final List<Element> ancestors;
+        final String html;
+        final int tokens;
+
+        Unit(List<Element> ancestors, String html, int tokens) {
+            this.ancestors = ancestors;
+            this.html = html;
+            this.tokens = tokens;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.fawry;
+
+import com.fawry.utilities.Log;
+import org.jsoup.nodes.*;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+import java.util.*;
+
+/**
+ * Shrinks a page snapshot down to what the model needs to repair a locator.
+ * <p>
+ * Removes non-semantic nodes (scripts, styles, inline SVG, hidden templates, comments) and hidden
+ * elements, unless hidden matches are accepted (healing.probe.requireVisible=false),
+ * drops attributes that never take part in a locator, strips inline data URIs,
+ * collapses whitespace inside text (its leading and trailing whitespace is kept as is, since
+ * locators may match it) and caps long text. The input document is not modified.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.distill.enabled - run the distiller (default true)</li>
+ *     <li>healing.distill.maxTextLength - longest text node kept, in chars (default 200)</li>
+ *     <li>healing.distill.removeTags - comma separated tags to drop (default script,style,...)</li>
+ *     <li>healing.distill.keepAttributes - comma separated attributes to keep (default id,name,class,...)</li>
+ *     <li>healing.probe.requireVisible - when false, hidden elements are kept for the model (default true)</li>
+ * </ul>
+ */
+public class DomDistiller {
+    private static final String DEFAULT_REMOVE_TAGS =
+            "script,style,noscript,template,svg,canvas,link,meta,base,object,embed,iframe";
+    private static final String DEFAULT_KEEP_ATTRIBUTES =
+            "id,name,class,type,value,placeholder,title,alt,role,for,href,label,aria-label,aria-labelledby," +
+                    "data-testid,data-test,data-test-id,data-qa,data-cy,formcontrolname,ng-model";
+
+    private final boolean enabled;
+    private final int maxTextLength;
+    private final String removeSelector;
+    private final Set<String> keepAttributes;
+    private final boolean removeHidden;
+
+    public DomDistiller() {
+        this(HealingConfig.getBoolean("healing.distill.enabled", true),
+                HealingConfig.getInt("healing.distill.maxTextLength", 200),
+                split(HealingConfig.get("healing.distill.removeTags", DEFAULT_REMOVE_TAGS)),
+                split(HealingConfig.get("healing.distill.keepAttributes", DEFAULT_KEEP_ATTRIBUTES)),
+                HealingConfig.getBoolean("healing.probe.requireVisible", true));
+    }
+
+    public DomDistiller(boolean enabled, int maxTextLength, Collection<String> removeTags, Collection<String> keepAttributes) {
+        this(enabled, maxTextLength, removeTags, keepAttributes, true);
+    }
+
+    /**
+     * removeHidden: drop elements that are hidden, by their attributes or as seen by the browser probe
+     */
+    public DomDistiller(boolean enabled, int maxTextLength, Collection<String> removeTags, Collection<String> keepAttributes,
+                        boolean removeHidden) {
+        this.enabled = enabled;
+        this.maxTextLength = maxTextLength;
+        this.removeSelector = String.join(",", removeTags);
+        this.keepAttributes = new HashSet<>(keepAttributes);
+        this.removeHidden = removeHidden;
+    }
+
+    /**
+     * Distill the document and report how much it shrank
+     */
+    public Result distill(Document document) {
+        long start = System.nanoTime();
+        if (!enabled) {
+            String original = document.outerHtml();
+            return new Result(original.length(), original, document);
+        }
+        // Only reported, so estimated from the tree rather than paid for with a second serialization
+        long originalLength = estimateLength(document);
+
+        Document copy = document.clone();
+        if (!removeSelector.isEmpty()) {
+            copy.select(removeSelector).remove();
+        }
+        if (removeHidden) {
+            copy.select("[hidden], [" + BrowserProbe.HIDDEN_MARKER + "], [style~=display:\\s*none], [style~=visibility:\\s*hidden]").remove();
+        }
+
+        List<Node> comments = new ArrayList<>();
+        NodeTraversor.traverse(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                if (node instanceof Comment) {
+                    comments.add(node);
+                } else if (node instanceof TextNode) {
+                    TextNode text = (TextNode) node;
+                    text.text(capText(text.getWholeText()));
+                } else if (node instanceof Element) {
+                    stripAttributes((Element) node);
+                }
+            }
+        }, copy);
+        comments.forEach(Node::remove);
+
+        copy.outputSettings().prettyPrint(false);
+        String distilled = copy.outerHtml();
+        Result result = new Result(originalLength, distilled, copy);
+        HealingMetrics.getDefault().record(HealingMetrics.SNAPSHOT, (System.nanoTime() - start) / 1_000_000);
+        Log.info("✂️ Distilled page snapshot: " + result);
+        return result;
+    }
+
+    private void stripAttributes(Element element) {
+        List<String> toRemove = new ArrayList<>();
+        for (Attribute attribute : element.attributes()) {
+            String key = attribute.getKey().toLowerCase(Locale.ROOT);
+            String value = attribute.getValue();
+            if (!keepAttributes.contains(key) || value.startsWith("data:") || value.startsWith("javascript:")) {
+                toRemove.add(attribute.getKey());
+            } else if (value.length() > maxTextLength) {
+                attribute.setValue(value.substring(0, maxTextLength));
+            }
+        }
+        toRemove.forEach(element::removeAttr);
+    }
+
+    /**
+     * Collapse whitespace runs inside the text to one space and cap its length, keeping leading and
+     * trailing whitespace exactly; whitespace between tags becomes one space
+     */
+    private String capText(String text) {
+        int begin = 0;
+        int end = text.length();
+        while (begin < end && Character.isWhitespace(text.charAt(begin))) begin++;
+        if (begin == end) return text.isEmpty() ? text : " ";
+        while (Character.isWhitespace(text.charAt(end - 1))) end--;
+        String inner = text.substring(begin, end).replaceAll("\\s+", " ");
+        if (inner.length() > maxTextLength) {
+            inner = inner.substring(0, maxTextLength) + "…";
+        }
+        return text.substring(0, begin) + inner + text.substring(end);
+    }
+
+    /**
+     * Characters the node's HTML takes, near enough: tags, attributes, text and data, without escaping
+     */
+    static long estimateLength(Node root) {
+        long[] length = {0};
+        NodeTraversor.traverse(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                if (node instanceof Element) {
+                    Element element = (Element) node;
+                    length[0] += element.tagName().length() + 2;
+                    for (Attribute attribute : element.attributes()) {
+                        length[0] += attribute.getKey().length() + attribute.getValue().length() + 4;
+                    }
+                } else if (node instanceof TextNode) {
+                    length[0] += ((TextNode) node).getWholeText().length();
+                } else if (node instanceof DataNode) {
+                    length[0] += ((DataNode) node).getWholeData().length();
+                } else if (node instanceof Comment) {
+                    length[0] += ((Comment) node).getData().length() + 7;
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+                if (node instanceof Element && !((Element) node).tag().isSelfClosing()) {
+                    length[0] += ((Element) node).tagName().length() + 3;
+                }
+            }
+        }, root);
+        return length[0];
+    }
+
+    private static List<String> split(String value) {
+        List<String> parts = new ArrayList<>();
+        for (String part : value.split(",")) {
+            if (!part.isBlank()) parts.add(part.trim());
+        }
+        return parts;
+    }
+
+    public static final class Result {
+        private final String html;
+        private final Document document;
+        // Both in characters: the original is estimated from its tree, it is never serialized
+        private final int originalChars;
+        private final int distilledChars;
+        private final int originalTokens;
+        private final int distilledTokens;
+
+        Result(long originalLength, String distilledHtml, Document document) {
+            this.html = distilledHtml;
+            this.document = document;
+            this.originalChars = (int) Math.min(Integer.MAX_VALUE, originalLength);
+            this.distilledChars = distilledHtml.length();
+            this.originalTokens = TokenEstimator.estimate(originalChars);
+            this.distilledTokens = TokenEstimator.estimate(distilledHtml);
+        }
+
+        public String getHtml() {
+            return html;
+        }
+
+        /**
+         * The distilled tree, for callers that split it further; do not modify
+         */
+        public Document getDocument() {
+            return document;
+        }
+
+        /**
+         * Estimated from the tree, in characters
+         */
+        public int getOriginalLength() {
+            return originalChars;
+        }
+
+        /**
+         * In characters
+         */
+        public int getDistilledLength() {
+            return distilledChars;
+        }
+
+        public int getOriginalTokens() {
+            return originalTokens;
+        }
+
+        public int getDistilledTokens() {
+            return distilledTokens;
+        }
+
+        @Override
+        public String toString() {
+            int saved = originalChars == 0 ? 0 : 100 - (int) (100L * distilledChars / originalChars);
+            return originalChars + " -> " + distilledChars + " chars, ~" + originalTokens + " -> ~"
+                    + distilledTokens + " tokens (" + saved + "% smaller)";
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.fawry;
+
+import com.fawry.utilities.Log;
+import org.jsoup.nodes.*;
+
+import java.util.*;
+
+/**
+ * Lookup structures over a snapshot, built in one traversal, so healing touches only the elements
+ * that share something with what it is looking for instead of scoring the whole page.
+ * <p>
+ * Holds for every element its positional path (/html[1]/body[1]/div[2], extended from the parent's
+ * path as the traversal goes down) and its position among same-tag siblings, plus inverted indexes
+ * from id, name, class, tag and word tokens to elements. Word tokens come from id, name, class and
+ * key attribute values, and from own text, which is also credited to the parent and grandparent
+ * (a button whose label sits in a span). Ids and names are also indexed by character trigrams,
+ * so a misspelt id ("usrname") still finds its element.
+ */
+public class DomIndex {
+    private static final Set<String> TOKEN_ATTRIBUTES = Set.of(
+            "id", "name", "class", "placeholder", "title", "alt", "aria-label", "value", "for", "href",
+            "data-testid", "data-test", "data-qa", "data-cy", "formcontrolname");
+    private static final int TEXT_ANCESTORS = 2;
+
+    private final Element root;
+    private final List<Element> elements = new ArrayList<>();
+    private final Map<Element, String> paths = new IdentityHashMap<>();
+    private final Map<Element, Integer> positions = new IdentityHashMap<>();
+    private final Map<String, List<Element>> ids = new HashMap<>();
+    private final Map<String, List<Element>> names = new HashMap<>();
+    private final Map<String, List<Element>> classes = new HashMap<>();
+    private final Map<String, List<Element>> tags = new HashMap<>();
+    private final Map<String, List<Element>> tokens = new HashMap<>();
+
+    private DomIndex(Element root) {
+        this.root = root;
+    }
+
+    /**
+     * Index the descendants of root (a document or, for scoped heals, an element)
+     */
+    public static DomIndex build(Element root) {
+        DomIndex index = new DomIndex(root);
+        long start = System.nanoTime();
+        Deque<Element> pending = new ArrayDeque<>();
+        index.paths.put(root, root instanceof Document ? "" : ".");
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Element parent = pending.pop();
+            String parentPath = index.paths.get(parent);
+            Map<String, Integer> tagCounts = new HashMap<>();
+            Element last = null;
+            for (Element child = parent.firstElementChild(); child != null; child = child.nextElementSibling()) {
+                int position = tagCounts.merge(child.tagName(), 1, Integer::sum);
+                index.positions.put(child, position);
+                index.paths.put(child, parentPath + "/" + child.tagName() + "[" + position + "]");
+                index.add(child);
+                last = child;
+            }
+            for (Element child = last; child != null; child = child.previousElementSibling()) {
+                pending.push(child);
+            }
+        }
+        Log.info("📇 Indexed " + index.elements.size() + " elements in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return index;
+    }
+
+    private void add(Element element) {
+        elements.add(element);
+        tags.computeIfAbsent(element.tagName(), key -> new ArrayList<>()).add(element);
+        // One pass over the attributes the element has, rather than a lookup per indexed attribute
+        for (Attribute attribute : element.attributes()) {
+            String key = attribute.getKey();
+            String value = attribute.getValue();
+            if (value.isEmpty() || !TOKEN_ATTRIBUTES.contains(key)) continue;
+            if ("id".equals(key)) {
+                ids.computeIfAbsent(value, k -> new ArrayList<>()).add(element);
+                addTrigrams(value, element);
+            } else if ("name".equals(key)) {
+                names.computeIfAbsent(value, k -> new ArrayList<>()).add(element);
+                addTrigrams(value, element);
+            } else if ("class".equals(key)) {
+                for (String className : value.trim().split("\\s+")) {
+                    if (!className.isEmpty()) classes.computeIfAbsent(className, k -> new ArrayList<>()).add(element);
+                }
+            }
+            addTokens(value, element);
+        }
+        for (Node child : element.childNodes()) {
+            if (!(child instanceof TextNode) || ((TextNode) child).isBlank()) continue;
+            String text = ((TextNode) child).getWholeText();
+            Element target = element;
+            for (int level = 0; level <= TEXT_ANCESTORS && target != null && target != root; level++) {
+                addTokens(text, target);
+                target = target.parent();
+            }
+        }
+    }
+
+    private void addTokens(String value, Element element) {
+        for (String token : LocalHealer.tokens(value)) {
+            addPosting(token, element);
+        }
+    }
+
+    private void addTrigrams(String value, Element element) {
+        for (String trigram : trigrams(value)) {
+            addPosting(trigram, element);
+        }
+    }
+
+    private void addPosting(String key, Element element) {
+        List<Element> posting = tokens.computeIfAbsent(key, k -> new ArrayList<>());
+        // Elements are added in traversal order, so a repeat is always the last entry
+        if (posting.isEmpty() || posting.get(posting.size() - 1) != element) {
+            posting.add(element);
+        }
+    }
+
+    /**
+     * Character trigrams of an id or name, as query keys for {@link #candidates(Collection, String)}
+     */
+    static Set<String> trigrams(String value) {
+        Set<String> trigrams = new HashSet<>();
+        String normalized = value.toLowerCase(Locale.ROOT);
+        for (int i = 0; i + 3 <= normalized.length(); i++) {
+            // Prefixed so a trigram never collides with a word token
+            trigrams.add("\u0000" + normalized.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Elements sharing a word token with the query; failing that, elements with the tag;
+     * failing that, every element
+     */
+    public Collection<Element> candidates(Collection<String> queryTokens, String tag) {
+        Set<Element> found = new LinkedHashSet<>();
+        for (String token : queryTokens) {
+            found.addAll(tokens.getOrDefault(token, Collections.emptyList()));
+        }
+        if (!found.isEmpty()) return found;
+        if (tag != null && tags.containsKey(tag)) return tags.get(tag);
+        return elements;
+    }
+
+    public Element getRoot() {
+        return root;
+    }
+
+    public List<Element> getElements() {
+        return elements;
+    }
+
+    /**
+     * Positional path, absolute for a document root and starting with "." below a scope element
+     */
+    public String pathOf(Element element) {
+        return paths.get(element);
+    }
+
+    /**
+     * 1-based position among the siblings with the same tag
+     */
+    public int positionOf(Element element) {
+        return positions.getOrDefault(element, 1);
+    }
+
+    public List<Element> byId(String id) {
+        return ids.getOrDefault(id, Collections.emptyList());
+    }
+
+    public List<Element> byName(String name) {
+        return names.getOrDefault(name, Collections.emptyList());
+    }
+
+    public List<Element> byClass(String className) {
+        return classes.getOrDefault(className, Collections.emptyList());
+    }
+
+    public List<Element> byTag(String tag) {
+        return tags.getOrDefault(tag, Collections.emptyList());
+    }
+
+    public List<Element> byToken(String token) {
+        return tokens.getOrDefault(token, Collections.emptyList());
+    }
+
+    public int size() {
+        return elements.size();
+    }
+}
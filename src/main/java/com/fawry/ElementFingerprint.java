@@ -0,0 +1,154 @@
+package com.fawry;
+
+import org.jsoup.nodes.Element;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * What an element looked like while its locator still worked: tag, key attributes, a hash of its
+ * text, the path of its nearest ancestors and its position among same-tag siblings.
+ * Recorded by {@link FingerprintRecorder} and matched by {@link LocalHealer} once the locator breaks.
+ */
+public final class ElementFingerprint {
+    /**
+     * Attributes kept in a fingerprint; the rest change too often or say nothing about identity
+     */
+    static final List<String> KEY_ATTRIBUTES = List.of(
+            "id", "name", "class", "type", "placeholder", "title", "alt", "role", "for", "href",
+            "aria-label", "data-testid", "data-test", "data-qa", "data-cy", "formcontrolname");
+    static final int MAX_ANCESTORS = 5;
+    // Characters of text hashed, counted without whitespace
+    static final int MAX_TEXT = 100;
+    private static final int MAX_VALUE = 200;
+
+    private final String tag;
+    private final Map<String, String> attributes;
+    private final int textHash;
+    // Nearest ancestor first, each as tag or tag#id
+    private final List<String> ancestors;
+    private final int siblingIndex;
+    private final long recorded;
+
+    ElementFingerprint(String tag, Map<String, String> attributes, int textHash, List<String> ancestors, int siblingIndex, long recorded) {
+        this.tag = tag;
+        this.attributes = attributes;
+        this.textHash = textHash;
+        this.ancestors = ancestors;
+        this.siblingIndex = siblingIndex;
+        this.recorded = recorded;
+    }
+
+    static ElementFingerprint of(String tag, Map<String, String> rawAttributes, String text, List<String> ancestors, int siblingIndex) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        for (String key : KEY_ATTRIBUTES) {
+            String value = rawAttributes.get(key);
+            if (value != null && !value.isBlank()) {
+                attributes.put(key, value.length() > MAX_VALUE ? value.substring(0, MAX_VALUE) : value);
+            }
+        }
+        List<String> path = ancestors.size() > MAX_ANCESTORS ? ancestors.subList(0, MAX_ANCESTORS) : ancestors;
+        return new ElementFingerprint(tag.toLowerCase(Locale.ROOT), attributes, hashText(text), List.copyOf(path),
+                siblingIndex, System.currentTimeMillis());
+    }
+
+    /**
+     * Hash of the text without its whitespace and case. Whitespace is dropped rather than collapsed
+     * because the browser's textContent and jsoup's text() of the same element differ only in it.
+     */
+    static int hashText(String text) {
+        if (text == null) return 0;
+        StringBuilder normalized = new StringBuilder(Math.min(text.length(), MAX_TEXT));
+        for (int i = 0; i < text.length() && normalized.length() < MAX_TEXT; i++) {
+            char c = text.charAt(i);
+            // The characters JavaScript's \s matches
+            if (!Character.isWhitespace(c) && !Character.isSpaceChar(c) && c != '\ufeff') {
+                normalized.append(c);
+            }
+        }
+        if (normalized.length() == 0) return 0;
+        return normalized.toString().toLowerCase(Locale.ROOT).hashCode();
+    }
+
+    static String ancestorStep(String tag, String id) {
+        return id == null || id.isEmpty() ? tag : tag + "#" + id;
+    }
+
+    /**
+     * Ancestor path of a snapshot element in the same form as a recorded one
+     */
+    static List<String> ancestorsOf(Element element) {
+        List<String> path = new ArrayList<>(MAX_ANCESTORS);
+        Element parent = element.parent();
+        while (parent != null && !"#root".equals(parent.tagName()) && path.size() < MAX_ANCESTORS) {
+            path.add(ancestorStep(parent.tagName(), parent.id()));
+            parent = parent.parent();
+        }
+        return path;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(recorded);
+        out.writeUTF(tag);
+        out.writeInt(textHash);
+        out.writeShort(siblingIndex);
+        out.writeByte(attributes.size());
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            out.writeUTF(attribute.getKey());
+            out.writeUTF(attribute.getValue());
+        }
+        out.writeByte(ancestors.size());
+        for (String ancestor : ancestors) {
+            out.writeUTF(ancestor);
+        }
+    }
+
+    static ElementFingerprint read(DataInput in) throws IOException {
+        long recorded = in.readLong();
+        String tag = in.readUTF();
+        int textHash = in.readInt();
+        int siblingIndex = in.readShort();
+        int attributeCount = in.readUnsignedByte();
+        Map<String, String> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.put(in.readUTF(), in.readUTF());
+        }
+        int ancestorCount = in.readUnsignedByte();
+        List<String> ancestors = new ArrayList<>(ancestorCount);
+        for (int i = 0; i < ancestorCount; i++) {
+            ancestors.add(in.readUTF());
+        }
+        return new ElementFingerprint(tag, attributes, textHash, ancestors, siblingIndex, recorded);
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    public int getTextHash() {
+        return textHash;
+    }
+
+    public List<String> getAncestors() {
+        return ancestors;
+    }
+
+    public int getSiblingIndex() {
+        return siblingIndex;
+    }
+
+    public long getRecorded() {
+        return recorded;
+    }
+
+    @Override
+    public String toString() {
+        return tag + attributes + " text#" + Integer.toHexString(textHash) + " under " + ancestors + " [" + siblingIndex + "]";
+    }
+}
@@ -0,0 +1,265 @@
+package com.fawry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fawry.utilities.Log;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Learns what the element behind each working locator looks like, so a broken locator can be
+ * re-identified locally from its {@link ElementFingerprint} instead of asking the model.
+ * <p>
+ * Opt-in. A sample of successful lookups is fingerprinted with one script call on the thread that
+ * made the lookup, since a driver must not be used from two threads at once, and a fingerprint is
+ * only refreshed once it is older than the refresh period. Fingerprints are kept in memory and
+ * flushed periodically, in the background, to a compact gzipped binary file, merged with what
+ * other JVMs wrote (newest fingerprint of a locator wins).
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.fingerprint.enabled - record fingerprints (default false)</li>
+ *     <li>healing.fingerprint.sampleRate - share of eligible lookups recorded, in [0, 1] (default 0.25)</li>
+ *     <li>healing.fingerprint.refresh - age in ms after which a fingerprint is recorded again (default 1 day)</li>
+ *     <li>healing.fingerprint.path - store file (default .self-healing/fingerprints.bin)</li>
+ *     <li>healing.fingerprint.flushInterval - how often new fingerprints are written, in ms (default 30000)</li>
+ * </ul>
+ */
+public class FingerprintRecorder {
+    private static final int MAGIC = 0x46505232; // "FPR2"
+    // Text hashed with its whitespace collapsed instead of dropped; such a store is started over
+    private static final int OLD_MAGIC = 0x46505231; // "FPR1"
+    private static final String DEFAULT_PATH = ".self-healing/fingerprints.bin";
+    private static final String CAPTURE_SCRIPT =
+            "var e = arguments[0], keys = arguments[1], maxText = arguments[3], attrs = {}, path = [], text = '';" +
+            // Same elements left out as in the probe's inventory, text in document order
+            "var skip = {SCRIPT: 1, STYLE: 1, NOSCRIPT: 1, TEMPLATE: 1, LINK: 1, META: 1, svg: 1, SVG: 1};" +
+            "function collect(n) {" +
+            "  for (var c = n.firstChild; c && text.length < maxText; c = c.nextSibling) {" +
+            "    if (c.nodeType === 3) text += c.nodeValue.replace(/\\s+/g, '');" +
+            "    else if (c.nodeType === 1 && !skip[c.tagName]) collect(c);" +
+            "  }" +
+            "}" +
+            "collect(e);" +
+            "for (var i = 0; i < keys.length; i++) {" +
+            "  var v = e.getAttribute(keys[i]);" +
+            "  if (v) attrs[keys[i]] = v;" +
+            "}" +
+            "for (var p = e.parentElement; p && path.length < arguments[2]; p = p.parentElement) {" +
+            "  path.push(p.tagName.toLowerCase() + (p.id ? '#' + p.id : ''));" +
+            "}" +
+            "var index = 1;" +
+            "for (var s = e.previousElementSibling; s; s = s.previousElementSibling) if (s.tagName === e.tagName) index++;" +
+            "return JSON.stringify([e.tagName.toLowerCase(), attrs, text, path, index]);";
+
+    private static volatile FingerprintRecorder defaultRecorder;
+
+    private final boolean enabled;
+    private final double sampleRate;
+    private final long refreshMillis;
+    private final Path file;
+    private final Path lockFile;
+    private final Map<String, ElementFingerprint> fingerprints = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ScheduledExecutorService worker;
+    private volatile boolean loaded;
+
+    public FingerprintRecorder(boolean enabled, double sampleRate, Duration refresh, Path file, Duration flushInterval) {
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+        this.refreshMillis = refresh.toMillis();
+        this.file = file.toAbsolutePath();
+        this.lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+        if (!enabled) {
+            this.worker = null;
+            return;
+        }
+        this.worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fingerprint-recorder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, flushInterval.toMillis());
+        worker.scheduleWithFixedDelay(this::flushIfDirty, interval, interval, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushIfDirty, "fingerprint-flush"));
+    }
+
+    public static FingerprintRecorder getDefault() {
+        if (defaultRecorder == null) {
+            synchronized (FingerprintRecorder.class) {
+                if (defaultRecorder == null) {
+                    defaultRecorder = new FingerprintRecorder(
+                            HealingConfig.getBoolean("healing.fingerprint.enabled", false),
+                            HealingConfig.getDouble("healing.fingerprint.sampleRate", 0.25),
+                            HealingConfig.getDuration("healing.fingerprint.refresh", Duration.ofDays(1)),
+                            Paths.get(HealingConfig.get("healing.fingerprint.path", DEFAULT_PATH)),
+                            HealingConfig.getDuration("healing.fingerprint.flushInterval", Duration.ofSeconds(30)));
+                }
+            }
+        }
+        return defaultRecorder;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Called after a successful lookup, on the thread that made it: fingerprint the element when it
+     * has no fresh fingerprint yet and the lookup is sampled. Costs nothing otherwise.
+     */
+    public void record(String locatorKey, WebElement element, WebDriver driver) {
+        if (!enabled || element == null) return;
+        ElementFingerprint existing = get(locatorKey);
+        if (existing != null && System.currentTimeMillis() - existing.getRecorded() < refreshMillis) return;
+        if (ThreadLocalRandom.current().nextDouble() >= sampleRate) return;
+        try {
+            ElementFingerprint fingerprint = capture(element, driver);
+            fingerprints.put(locatorKey, fingerprint);
+            dirty.set(true);
+            Log.info("🖐️ Recorded fingerprint of " + locatorKey + ": " + fingerprint);
+        } catch (WebDriverException | IOException e) {
+            // Stale already; a later lookup records it
+        }
+    }
+
+    /**
+     * Last fingerprint recorded for the locator, or null
+     */
+    public ElementFingerprint get(String locatorKey) {
+        if (!enabled) return null;
+        ensureLoaded();
+        return fingerprints.get(locatorKey);
+    }
+
+    public int size() {
+        ensureLoaded();
+        return fingerprints.size();
+    }
+
+    private ElementFingerprint capture(WebElement element, WebDriver driver) throws IOException {
+        if (driver instanceof JavascriptExecutor) {
+            Object raw = ((JavascriptExecutor) driver).executeScript(CAPTURE_SCRIPT, element,
+                    ElementFingerprint.KEY_ATTRIBUTES, ElementFingerprint.MAX_ANCESTORS, ElementFingerprint.MAX_TEXT);
+            JsonNode row = mapper.readTree(String.valueOf(raw));
+            Map<String, String> attributes = new HashMap<>();
+            row.get(1).fields().forEachRemaining(attribute -> attributes.put(attribute.getKey(), attribute.getValue().asText()));
+            List<String> ancestors = new ArrayList<>();
+            row.get(3).forEach(step -> ancestors.add(step.asText()));
+            return ElementFingerprint.of(row.get(0).asText(), attributes, row.get(2).asText(), ancestors, row.get(4).asInt());
+        }
+        // No script support: attributes one call each, no position
+        Map<String, String> attributes = new HashMap<>();
+        for (String key : ElementFingerprint.KEY_ATTRIBUTES) {
+            String value = element.getDomAttribute(key);
+            if (value != null) attributes.put(key, value);
+        }
+        return ElementFingerprint.of(element.getTagName(), attributes, element.getText(), List.of(), 0);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            if (Files.exists(file)) {
+                try (FileChannel lockChannel = openLock()) {
+                    FileLock lock = lockChannel.lock(0, Long.MAX_VALUE, true);
+                    try {
+                        readInto(fingerprints);
+                    } finally {
+                        lock.release();
+                    }
+                } catch (IOException e) {
+                    Log.error("Unreadable fingerprint store " + file + ", starting empty", e);
+                }
+            }
+            loaded = true;
+        }
+    }
+
+    private void flushIfDirty() {
+        if (dirty.getAndSet(false)) {
+            flush();
+        }
+    }
+
+    /**
+     * Merge the fingerprints of this JVM into the store file
+     */
+    public synchronized void flush() {
+        if (!enabled) return;
+        ensureLoaded();
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileChannel lockChannel = openLock()) {
+                FileLock lock = lockChannel.lock();
+                try {
+                    writeMerged();
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            dirty.set(true);
+            Log.error("Failed to write fingerprint store " + file, e);
+        }
+    }
+
+    /**
+     * Rewrite the store with ours and what is on disk, for a caller holding the lock
+     */
+    private void writeMerged() throws IOException {
+        Map<String, ElementFingerprint> merged = new HashMap<>();
+        if (Files.exists(file)) {
+            readInto(merged);
+        }
+        fingerprints.forEach((key, fingerprint) -> merged.merge(key, fingerprint,
+                (onDisk, ours) -> ours.getRecorded() >= onDisk.getRecorded() ? ours : onDisk));
+
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(merged.size());
+            for (Map.Entry<String, ElementFingerprint> entry : merged.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        merged.forEach((key, fingerprint) -> fingerprints.merge(key, fingerprint,
+                (ours, onDisk) -> onDisk.getRecorded() > ours.getRecorded() ? onDisk : ours));
+    }
+
+    private void readInto(Map<String, ElementFingerprint> target) throws IOException {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+            int magic = in.readInt();
+            if (magic == OLD_MAGIC) return;
+            if (magic != MAGIC) {
+                throw new IOException("Not a fingerprint store: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                target.put(in.readUTF(), ElementFingerprint.read(in));
+            }
+        }
+    }
+
+    private FileChannel openLock() throws IOException {
+        Files.createDirectories(lockFile.getParent());
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+}
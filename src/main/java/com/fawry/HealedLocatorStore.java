@@ -0,0 +1,443 @@
+package com.fawry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fawry.utilities.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Persistent store of healed locators shared by every JVM running on the same machine.
+ * <p>
+ * The store is an append-only file of JSON lines. Every heal appends a record carrying the
+ * original locator key, the healed locator, a per-key version and an expiry time; the newest
+ * version of a key wins. Writers take an exclusive lock on a side lock file, readers a shared one,
+ * so forked Surefire JVMs can read and write at the same time. The file is loaded lazily on first
+ * lookup, tailed incrementally when a miss finds it changed since the last read (checked at most once
+ * per refresh interval, so lookups never touch the lock file), and compacted in the background
+ * once it holds mostly superseded or expired records.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.store.enabled - persist to disk (default true), otherwise memory only</li>
+ *     <li>healing.store.path - store file (default .self-healing/healed-locators.jsonl)</li>
+ *     <li>healing.store.ttl - lifetime of a heal in ms (default 7 days)</li>
+ *     <li>healing.store.compactInterval - compaction check period in ms (default 10 minutes)</li>
+ *     <li>healing.store.refreshInterval - least time in ms between checks for records of other JVMs (default 1 s)</li>
+ * </ul>
+ */
+public class HealedLocatorStore {
+    private static final int FORMAT_VERSION = 1;
+    private static final String DEFAULT_PATH = ".self-healing/healed-locators.jsonl";
+    private static final Duration DEFAULT_TTL = Duration.ofDays(7);
+    private static final Duration DEFAULT_COMPACT_INTERVAL = Duration.ofMinutes(10);
+    private static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofSeconds(1);
+
+    private static volatile HealedLocatorStore defaultStore;
+
+    private final Path file;
+    private final Path lockFile;
+    private final Duration ttl;
+    private final boolean persistent;
+    private final long refreshIntervalMillis;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Guarded by "this": records of this JVM that could not be written yet, retried on the next write
+    private final Map<String, Entry> unflushed = new LinkedHashMap<>();
+
+    // Guarded by "this": position of the next unread byte and identity of the file it belongs to
+    private long readOffset;
+    private Object fileKey;
+    private long recordCount;
+    // Size and modification time of the file when it was last read
+    private long seenSize = -1;
+    private long seenModified;
+    private volatile long nextRefreshCheck;
+    private volatile boolean loaded;
+    private volatile boolean broken;
+    private ScheduledExecutorService compactor;
+
+    public HealedLocatorStore(Path file, Duration ttl, boolean persistent) {
+        this(file, ttl, persistent, HealingConfig.getDuration("healing.store.refreshInterval", DEFAULT_REFRESH_INTERVAL));
+    }
+
+    public HealedLocatorStore(Path file, Duration ttl, boolean persistent, Duration refreshInterval) {
+        this.file = file.toAbsolutePath();
+        this.lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+        this.ttl = ttl;
+        this.persistent = persistent;
+        this.refreshIntervalMillis = refreshInterval.toMillis();
+    }
+
+    /**
+     * Store configured from system properties, shared by every By in this JVM
+     */
+    public static HealedLocatorStore getDefault() {
+        if (defaultStore == null) {
+            synchronized (HealedLocatorStore.class) {
+                if (defaultStore == null) {
+                    defaultStore = new HealedLocatorStore(
+                            Paths.get(HealingConfig.get("healing.store.path", DEFAULT_PATH)),
+                            HealingConfig.getDuration("healing.store.ttl", DEFAULT_TTL),
+                            HealingConfig.getBoolean("healing.store.enabled", true));
+                }
+            }
+        }
+        return defaultStore;
+    }
+
+    /**
+     * Healed locator for the key, or null when unknown or expired.
+     * A miss picks up records other JVMs appended, when the file changed and the refresh interval has passed.
+     */
+    public org.openqa.selenium.By get(String locatorKey) {
+        ensureLoaded();
+        Entry entry = lookup(locatorKey);
+        if (entry == null && persistent && !broken && refreshDue() && refreshIfChanged()) {
+            entry = lookup(locatorKey);
+        }
+        return entry == null ? null : entry.toLocator();
+    }
+
+    private boolean refreshDue() {
+        long now = System.currentTimeMillis();
+        if (now < nextRefreshCheck) return false;
+        synchronized (this) {
+            if (now < nextRefreshCheck) return false;
+            nextRefreshCheck = now + refreshIntervalMillis;
+            return true;
+        }
+    }
+
+    /**
+     * Tail the file when its size, modification time or identity moved since the last read; one stat otherwise
+     */
+    private boolean refreshIfChanged() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            synchronized (this) {
+                if (attributes.size() == seenSize && attributes.lastModifiedTime().toMillis() == seenModified
+                        && Objects.equals(attributes.fileKey(), fileKey)) return false;
+                refresh();
+                return true;
+            }
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            Log.error("Failed to check healed locator store: " + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Record a heal. The entry gets the next version of the key and a fresh expiry.
+     */
+    public void put(String locatorKey, org.openqa.selenium.By healedBy) {
+        ensureLoaded();
+        String type = Locators.typeOf(healedBy);
+        String value = Locators.valueOf(healedBy);
+        synchronized (this) {
+            write(locatorKey, previous -> {
+                long now = System.currentTimeMillis();
+                return new Entry(locatorKey, type, value, previous == null ? 1 : previous.version + 1,
+                        now, now + ttl.toMillis(), false);
+            });
+        }
+    }
+
+    /**
+     * Drop a heal, e.g. when the healed locator itself stopped matching
+     */
+    public void remove(String locatorKey) {
+        ensureLoaded();
+        synchronized (this) {
+            write(locatorKey, previous -> {
+                if (previous == null) return null;
+                long now = System.currentTimeMillis();
+                return new Entry(locatorKey, previous.type, previous.value, previous.version + 1, now, now, true);
+            });
+        }
+    }
+
+    /**
+     * Number of live heals currently known to this JVM
+     */
+    public int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    private Entry lookup(String locatorKey) {
+        Entry entry = entries.get(locatorKey);
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(locatorKey, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            if (persistent) {
+                try {
+                    Files.createDirectories(file.getParent());
+                    refresh();
+                    startCompactor();
+                } catch (IOException e) {
+                    broken = true;
+                    Log.error("Healed locator store unavailable, falling back to memory: " + file, e);
+                }
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Read records appended since the last read, under a shared lock
+     */
+    private void refresh() {
+        if (broken || !Files.exists(file)) return;
+        try (FileChannel lockChannel = openLockChannel()) {
+            FileLock lock = lockChannel.lock(0, Long.MAX_VALUE, true);
+            try {
+                refreshLocked();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            Log.error("Failed to read healed locator store: " + file, e);
+        }
+    }
+
+    private void apply(String line) {
+        if (line.isBlank()) return;
+        try {
+            JsonNode node = mapper.readTree(line);
+            if (node.path("v").asInt() != FORMAT_VERSION) return;
+            recordCount++;
+            merge(Entry.fromJson(node));
+        } catch (IOException e) {
+            Log.warning("Skipping corrupt healed locator record: " + line);
+        }
+    }
+
+    /**
+     * Apply a record unless a newer version of its key is already known
+     */
+    private void merge(Entry entry) {
+        Entry current = entries.get(entry.key);
+        if (current != null && current.version > entry.version) return;
+        if (entry.deleted || entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(entry.key);
+        } else {
+            entries.put(entry.key, entry);
+        }
+    }
+
+    /**
+     * Write the record made from the latest known entry of the key, then apply it. Under the exclusive
+     * lock the file is read up to its end first, so the version follows whatever other JVMs wrote.
+     * A record that cannot be written still applies here and is retried with the next write.
+     */
+    private void write(String locatorKey, UnaryOperator<Entry> next) {
+        if (!persistent || broken) {
+            Entry entry = next.apply(entries.get(locatorKey));
+            if (entry != null) merge(entry);
+            return;
+        }
+        Entry entry = null;
+        try (FileChannel lockChannel = openLockChannel()) {
+            FileLock lock = lockChannel.lock();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                refreshLocked();
+                entry = next.apply(entries.get(locatorKey));
+                if (entry == null) return;
+                StringBuilder records = new StringBuilder();
+                for (Entry pending : unflushed.values()) {
+                    if (!pending.key.equals(locatorKey)) records.append(pending.toJson(mapper)).append('\n');
+                }
+                records.append(entry.toJson(mapper)).append('\n');
+                ByteBuffer buffer = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                // Read our own records back, as any other, so the offset stays aligned with the file
+                refreshLocked();
+                unflushed.clear();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            Log.error("Failed to persist healed locator for: " + locatorKey, e);
+            if (entry == null) entry = next.apply(entries.get(locatorKey));
+            if (entry != null) {
+                unflushed.put(locatorKey, entry);
+                merge(entry);
+            }
+        }
+    }
+
+    /**
+     * Tail the file for callers already holding the lock; start over if a compaction replaced it
+     */
+    private void refreshLocked() throws IOException {
+        if (!Files.exists(file)) return;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            Object currentKey = attributes.fileKey();
+            seenSize = attributes.size();
+            seenModified = attributes.lastModifiedTime().toMillis();
+            long size = channel.size();
+            if (!Objects.equals(currentKey, fileKey) || size < readOffset) {
+                // Replaced by a compaction: the file is the truth, only records not written yet are ours to keep
+                entries.clear();
+                readOffset = 0;
+                recordCount = 0;
+                fileKey = currentKey;
+                readFrom(channel, size);
+                unflushed.values().forEach(this::merge);
+                return;
+            }
+            readFrom(channel, size);
+        }
+    }
+
+    private void readFrom(FileChannel channel, long size) throws IOException {
+        if (size <= readOffset) return;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - readOffset));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, readOffset + buffer.position()) < 0) break;
+        }
+        byte[] bytes = buffer.array();
+        int length = buffer.position();
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == '\n') {
+                apply(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8));
+                lineStart = i + 1;
+            }
+        }
+        // A trailing partial line belongs to a writer that has not finished yet; read it next time
+        readOffset += lineStart;
+    }
+
+    private FileChannel openLockChannel() throws IOException {
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void startCompactor() {
+        long period = HealingConfig.getDuration("healing.store.compactInterval", DEFAULT_COMPACT_INTERVAL).toMillis();
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "healed-locator-store-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rewrite the file with only the live records once at least half of it is dead weight
+     */
+    synchronized void compactIfNeeded() {
+        if (broken || !Files.exists(file)) return;
+        try (FileChannel lockChannel = openLockChannel()) {
+            FileLock lock = lockChannel.lock();
+            try {
+                compactLocked();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            Log.error("Failed to compact healed locator store: " + file, e);
+        }
+    }
+
+    private void compactLocked() throws IOException {
+        refreshLocked();
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+        if (recordCount < 2L * Math.max(entries.size(), 1)) return;
+
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        StringBuilder content = new StringBuilder();
+        for (Entry entry : entries.values()) {
+            content.append(entry.toJson(mapper)).append('\n');
+        }
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(temp, bytes);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Log.info("🧹 Compacted healed locator store: " + recordCount + " -> " + entries.size() + " records");
+        fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        readOffset = bytes.length;
+        recordCount = entries.size();
+        // The live entries, ours included, are all in the new file now
+        unflushed.clear();
+    }
+
+    static final class Entry {
+        final String key;
+        final String type;
+        final String value;
+        final long version;
+        final long createdAt;
+        final long expiresAt;
+        final boolean deleted;
+
+        Entry(String key, String type, String value, long version, long createdAt, long expiresAt, boolean deleted) {
+            this.key = key;
+            this.type = type;
+            this.value = value;
+            this.version = version;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+            this.deleted = deleted;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+        org.openqa.selenium.By toLocator() {
+            return Locators.create(type, value);
+        }
+
+        String toJson(ObjectMapper mapper) {
+            ObjectNode node = mapper.createObjectNode();
+            node.put("v", FORMAT_VERSION);
+            node.put("key", key);
+            node.put("type", type);
+            node.put("value", value);
+            node.put("version", version);
+            node.put("created", createdAt);
+            node.put("expires", expiresAt);
+            if (deleted) node.put("deleted", true);
+            return node.toString();
+        }
+
+        static Entry fromJson(JsonNode node) {
+            return new Entry(node.path("key").asText(), node.path("type").asText(), node.path("value").asText(),
+                    node.path("version").asLong(), node.path("created").asLong(), node.path("expires").asLong(),
+                    node.path("deleted").asBoolean(false));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.fawry;
+
+import java.time.Duration;
+
+/**
+ * Central place for the tunables of the healing library.
+ * Every value can be overridden with a JVM system property (e.g. -Dhealing.store.enabled=false)
+ * or with the matching environment variable (HEALING_STORE_ENABLED=false).
+ */
+public final class HealingConfig {
+
+    private HealingConfig() {
+    }
+
+    /**
+     * Read a raw setting: system property first, then environment variable, then the default
+     */
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key.toUpperCase().replace('.', '_'));
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(get(key, String.valueOf(defaultValue)));
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static double getDouble(String key, double defaultValue) {
+        try {
+            return Double.parseDouble(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Durations are configured in milliseconds
+     */
+    public static Duration getDuration(String key, Duration defaultValue) {
+        return Duration.ofMillis(getLong(key, defaultValue.toMillis()));
+    }
+}
@@ -1,10 +1,36 @@
 package com.fawry;
 
+import org.openqa.selenium.WebDriver;
+
 public class HealingContext {
 
     // Thread-safe flag so each test thread can enable/disable healing independently
     private static final ThreadLocal<Boolean> healingEnabled = ThreadLocal.withInitial(() -> true);
 
+    // Driver of the session running on this thread, so parallel sessions heal independently
+    private static final ThreadLocal<WebDriver> driver = new ThreadLocal<>();
+
+    /**
+     * Bind the WebDriver session used for healing in the current thread
+     */
+    public static void setDriver(WebDriver webDriver) {
+        driver.set(webDriver);
+    }
+
+    /**
+     * WebDriver session bound to the current thread, or null
+     */
+    public static WebDriver getDriver() {
+        return driver.get();
+    }
+
+    /**
+     * Release the current thread's session, e.g. in an @AfterMethod before the driver quits
+     */
+    public static void clearDriver() {
+        driver.remove();
+    }
+
     /**
      * Enable healing globally in the current thread
      */
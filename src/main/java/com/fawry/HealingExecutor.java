@@ -0,0 +1,109 @@
+package com.fawry;
+
+import com.fawry.utilities.Log;
+import org.openqa.selenium.WebDriver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs lookups and heals off the test thread, for the async methods of {@link By}.
+ * <p>
+ * Uses virtual threads when the JVM has them (Java 21+) and a bounded pool of daemon threads
+ * otherwise. Either way at most healing.async.maxConcurrent tasks run at once; the rest queue.
+ * A task sees the submitting thread's {@link HealingContext}: its driver and whether healing is on.
+ * A WebDriver must not be used from two threads at once, so the tasks submitted for one session run
+ * one after the other, and the submitting thread must leave the session alone until its task is done.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.async.maxConcurrent - lookups and heals running at once (default 8)</li>
+ *     <li>healing.async.virtualThreads - use virtual threads when available (default true)</li>
+ * </ul>
+ */
+public final class HealingExecutor {
+    private static final int MAX_CONCURRENT = Math.max(1, HealingConfig.getInt("healing.async.maxConcurrent", 8));
+    private static final Semaphore PERMITS = new Semaphore(MAX_CONCURRENT);
+    private static final ExecutorService EXECUTOR = create();
+    // Last task submitted for each session, while one is pending; guarded by itself
+    private static final Map<WebDriver, CompletableFuture<?>> SESSION_TAILS = new HashMap<>();
+
+    private HealingExecutor() {
+    }
+
+    private static ExecutorService create() {
+        if (HealingConfig.getBoolean("healing.async.virtualThreads", true)) {
+            try {
+                // Looked up reflectively, the library is built for Java 17
+                ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                Log.info("🧵 Async healing on virtual threads, " + MAX_CONCURRENT + " at once");
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                // Before Java 21
+            }
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(MAX_CONCURRENT, runnable -> {
+            Thread thread = new Thread(runnable, "healing-async-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run the task in the background with the caller's healing context
+     */
+    public static <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return submit(task, HealingContext.getDriver(), HealingContext.isHealingEnabled());
+    }
+
+    /**
+     * {@link #submit(Supplier)} for a task that drives the session: it starts once the tasks submitted
+     * before it for the same session are done. No thread waits in the meantime.
+     */
+    public static <T> CompletableFuture<T> submit(WebDriver session, Supplier<T> task) {
+        WebDriver driver = HealingContext.getDriver();
+        boolean healingEnabled = HealingContext.isHealingEnabled();
+        if (session == null) {
+            return submit(task, driver, healingEnabled);
+        }
+        CompletableFuture<T> next;
+        synchronized (SESSION_TAILS) {
+            CompletableFuture<?> previous = SESSION_TAILS.get(session);
+            next = previous == null
+                    ? submit(task, driver, healingEnabled)
+                    : previous.handle((result, error) -> null).thenCompose(ignored -> submit(task, driver, healingEnabled));
+            SESSION_TAILS.put(session, next);
+        }
+        CompletableFuture<T> tail = next;
+        // Forget the session once its queue is empty, so a quit driver is not kept
+        tail.whenComplete((result, error) -> {
+            synchronized (SESSION_TAILS) {
+                SESSION_TAILS.remove(session, tail);
+            }
+        });
+        return tail;
+    }
+
+    private static <T> CompletableFuture<T> submit(Supplier<T> task, WebDriver driver, boolean healingEnabled) {
+        return CompletableFuture.supplyAsync(() -> {
+            PERMITS.acquireUninterruptibly();
+            WebDriver previousDriver = HealingContext.getDriver();
+            boolean previousEnabled = HealingContext.isHealingEnabled();
+            try {
+                HealingContext.setDriver(driver);
+                if (healingEnabled) HealingContext.enableHealing(); else HealingContext.disableHealing();
+                return task.get();
+            } finally {
+                // Pool threads are reused, so leave them as they were
+                if (previousDriver == null) HealingContext.clearDriver(); else HealingContext.setDriver(previousDriver);
+                if (previousEnabled) HealingContext.enableHealing(); else HealingContext.disableHealing();
+                PERMITS.release();
+            }
+        }, EXECUTOR);
+    }
+}
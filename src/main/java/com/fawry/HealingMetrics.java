@@ -0,0 +1,367 @@
+package com.fawry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fawry.utilities.Log;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What healing costs the suite: counters, histograms and per-locator and per-page breakdowns of
+ * the time spent waiting for broken locators and healing them.
+ * <p>
+ * Read it through the getters (pull), over JMX as com.fawry.healing:type=HealingMetrics, or as the
+ * JSON summary that is written when the JVM exits. Histograms are recorded in milliseconds, except
+ * promptTokens which holds estimated prompt sizes in tokens. The wait histogram holds every wait for
+ * a locator, found or not; the breakdowns only the waits that ended in a heal.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.metrics.enabled - record metrics (default true)</li>
+ *     <li>healing.metrics.jmx - register the MBean (default true)</li>
+ *     <li>healing.metrics.exportOnExit - write the JSON summary when the JVM exits (default true)</li>
+ *     <li>healing.metrics.export - summary file, {pid} is replaced by the process id so parallel
+ *     Surefire forks write one file each (default .self-healing/metrics-{pid}.json)</li>
+ *     <li>healing.metrics.maxKeys - distinct locators and pages tracked, the rest count as "(other)" (default 1000)</li>
+ *     <li>healing.metrics.top - locators and pages listed in the summary (default 50)</li>
+ * </ul>
+ */
+public class HealingMetrics implements HealingMetricsMXBean {
+    public static final String HEALED_STORE_HITS = "healedStore.hits";
+    public static final String HEALED_STORE_MISSES = "healedStore.misses";
+    public static final String AI_CACHE_HITS = "aiCache.hits";
+    public static final String AI_CACHE_MISSES = "aiCache.misses";
+    public static final String KNOWN_FAILURE_SKIPS = "heal.knownFailureSkips";
+    public static final String HEAL_ATTEMPTS = "heal.attempts";
+    public static final String HEAL_SUCCESSES = "heal.successes";
+    public static final String HEAL_FAILURES = "heal.failures";
+    public static final String HEALED_BY_FALLBACK = "heal.byFallback";
+    public static final String HEALED_BY_FINGERPRINT = "heal.byFingerprint";
+    public static final String HEALED_BY_LOCAL = "heal.byLocal";
+    public static final String HEALED_BY_MODEL = "heal.byModel";
+
+    public static final String WAIT = "wait";
+    public static final String CAPTURE = "capture";
+    public static final String SNAPSHOT = "snapshot";
+    public static final String PROMPT_TOKENS = "promptTokens";
+    public static final String MODEL_ROUND_TRIP = "modelRoundTrip";
+    public static final String HEAL = "heal";
+
+    private static final String OTHER = "(other)";
+    private static final String DEFAULT_EXPORT = ".self-healing/metrics-{pid}.json";
+    private static volatile HealingMetrics defaultMetrics;
+
+    private final boolean enabled;
+    private final int maxKeys;
+    private final int top;
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, Breakdown> locators = new ConcurrentHashMap<>();
+    private final Map<String, Breakdown> pages = new ConcurrentHashMap<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public HealingMetrics(boolean enabled, int maxKeys, int top) {
+        this.enabled = enabled;
+        this.maxKeys = maxKeys;
+        this.top = top;
+    }
+
+    public static HealingMetrics getDefault() {
+        if (defaultMetrics == null) {
+            synchronized (HealingMetrics.class) {
+                if (defaultMetrics == null) {
+                    HealingMetrics metrics = new HealingMetrics(
+                            HealingConfig.getBoolean("healing.metrics.enabled", true),
+                            HealingConfig.getInt("healing.metrics.maxKeys", 1000),
+                            HealingConfig.getInt("healing.metrics.top", 50));
+                    if (metrics.enabled) {
+                        if (HealingConfig.getBoolean("healing.metrics.jmx", true)) {
+                            metrics.registerMBean();
+                        }
+                        if (HealingConfig.getBoolean("healing.metrics.exportOnExit", true)) {
+                            Path file = Paths.get(HealingConfig.get("healing.metrics.export", DEFAULT_EXPORT)
+                                    .replace("{pid}", String.valueOf(ProcessHandle.current().pid())));
+                            Runtime.getRuntime().addShutdownHook(new Thread(() -> metrics.exportIfUsed(file), "healing-metrics-export"));
+                        }
+                    }
+                    defaultMetrics = metrics;
+                }
+            }
+        }
+        return defaultMetrics;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void increment(String counter) {
+        if (!enabled) return;
+        counters.computeIfAbsent(counter, key -> new LongAdder()).increment();
+    }
+
+    public void record(String histogram, long value) {
+        if (!enabled) return;
+        histograms.computeIfAbsent(histogram, key -> new LatencyHistogram()).record(value);
+    }
+
+    /**
+     * One wait for a locator as written, whether it appeared or timed out, so the wait histogram
+     * shows the whole distribution rather than only the waits that failed
+     */
+    public void recordLookupWait(long millis) {
+        if (!enabled) return;
+        record(WAIT, millis);
+    }
+
+    /**
+     * Time spent waiting for a locator before declaring it broken, charged to the locator and the
+     * page; the wait itself is already in the wait histogram
+     */
+    public void recordWait(String locatorKey, String page, long millis) {
+        if (!enabled) return;
+        breakdown(locators, locatorKey).addWait(millis);
+        breakdown(pages, page).addWait(millis);
+    }
+
+    /**
+     * Outcome and duration of one heal of a locator
+     */
+    public void recordHeal(String locatorKey, String page, long millis, boolean healed) {
+        if (!enabled) return;
+        increment(HEAL_ATTEMPTS);
+        increment(healed ? HEAL_SUCCESSES : HEAL_FAILURES);
+        record(HEAL, millis);
+        breakdown(locators, locatorKey).addHeal(millis, healed);
+        breakdown(pages, page).addHeal(millis, healed);
+    }
+
+    private Breakdown breakdown(Map<String, Breakdown> breakdowns, String key) {
+        String name = key == null || key.isEmpty() ? "(unknown)" : key;
+        Breakdown breakdown = breakdowns.get(name);
+        if (breakdown != null) return breakdown;
+        // Bounded, so pages with ids in their URL do not grow the map for the whole run
+        if (breakdowns.size() >= maxKeys) name = OTHER;
+        return breakdowns.computeIfAbsent(name, k -> new Breakdown());
+    }
+
+    public long getCounter(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * The histogram, or an empty one when nothing was recorded
+     */
+    public LatencyHistogram getHistogram(String histogram) {
+        return histograms.getOrDefault(histogram, new LatencyHistogram());
+    }
+
+    public Map<String, Breakdown> getLocatorBreakdowns() {
+        return byCost(locators, Integer.MAX_VALUE);
+    }
+
+    public Map<String, Breakdown> getPageBreakdowns() {
+        return byCost(pages, Integer.MAX_VALUE);
+    }
+
+    private static Map<String, Breakdown> byCost(Map<String, Breakdown> breakdowns, int limit) {
+        List<Map.Entry<String, Breakdown>> sorted = new ArrayList<>(breakdowns.entrySet());
+        sorted.sort(Comparator.comparingLong((Map.Entry<String, Breakdown> entry) -> entry.getValue().getCostMillis()).reversed());
+        Map<String, Breakdown> result = new LinkedHashMap<>();
+        sorted.stream().limit(limit).forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((key, adder) -> result.put(key, adder.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, String> getHistograms() {
+        Map<String, String> result = new TreeMap<>();
+        histograms.forEach((key, histogram) -> result.put(key, histogram.toString()));
+        return result;
+    }
+
+    @Override
+    public long getHealAttempts() {
+        return getCounter(HEAL_ATTEMPTS);
+    }
+
+    @Override
+    public long getHealSuccesses() {
+        return getCounter(HEAL_SUCCESSES);
+    }
+
+    @Override
+    public long getHealFailures() {
+        return getCounter(HEAL_FAILURES);
+    }
+
+    @Override
+    public Map<String, String> getCostliestLocators() {
+        Map<String, String> result = new LinkedHashMap<>();
+        byCost(locators, top).forEach((key, breakdown) -> result.put(key, breakdown.toString()));
+        return result;
+    }
+
+    @Override
+    public Map<String, String> getCostliestPages() {
+        Map<String, String> result = new LinkedHashMap<>();
+        byCost(pages, top).forEach((key, breakdown) -> result.put(key, breakdown.toString()));
+        return result;
+    }
+
+    @Override
+    public String getJsonSummary() {
+        try {
+            return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(toJson());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to render healing metrics", e);
+        }
+    }
+
+    @Override
+    public void reset() {
+        counters.clear();
+        histograms.clear();
+        locators.clear();
+        pages.clear();
+    }
+
+    /**
+     * Summary of the run: counters, histograms and the costliest locators and pages
+     */
+    public ObjectNode toJson() {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("generated", Instant.now().toString());
+        ObjectNode counterNode = root.putObject("counters");
+        getCounters().forEach(counterNode::put);
+        ObjectNode histogramNode = root.putObject("histograms");
+        new TreeMap<>(histograms).forEach((key, histogram) -> writeHistogram(histogramNode.putObject(key), histogram));
+        writeBreakdowns(root.putArray("locators"), "locator", byCost(locators, top));
+        writeBreakdowns(root.putArray("pages"), "page", byCost(pages, top));
+        return root;
+    }
+
+    private static void writeHistogram(ObjectNode node, LatencyHistogram histogram) {
+        node.put("count", histogram.getCount());
+        node.put("total", histogram.getTotalMillis());
+        node.put("mean", Math.round(histogram.getMeanMillis()));
+        node.put("p50", histogram.getPercentileMillis(50));
+        node.put("p99", histogram.getPercentileMillis(99));
+        node.put("max", histogram.getMaxMillis());
+    }
+
+    private static void writeBreakdowns(ArrayNode array, String keyName, Map<String, Breakdown> breakdowns) {
+        breakdowns.forEach((key, breakdown) -> {
+            ObjectNode node = array.addObject();
+            node.put(keyName, key);
+            node.put("costMillis", breakdown.getCostMillis());
+            node.put("waits", breakdown.getWaits());
+            node.put("waitMillis", breakdown.getWaitMillis());
+            node.put("healAttempts", breakdown.getHeals().getCount());
+            node.put("healSuccesses", breakdown.getHealSuccesses());
+            node.put("healFailures", breakdown.getHealFailures());
+            writeHistogram(node.putObject("heal"), breakdown.getHeals());
+        });
+    }
+
+    /**
+     * Write the JSON summary, replacing the file atomically
+     */
+    public void writeJson(Path file) throws IOException {
+        Path target = file.toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        Files.writeString(temp, getJsonSummary());
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void exportIfUsed(Path file) {
+        if (counters.isEmpty() && histograms.isEmpty()) return;
+        try {
+            writeJson(file);
+        } catch (IOException e) {
+            Log.error("Failed to write healing metrics to " + file, e);
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("com.fawry.healing:type=HealingMetrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            Log.error("Unable to register healing metrics MBean", e);
+        }
+    }
+
+    /**
+     * Wait and heal cost of one locator or page
+     */
+    public static final class Breakdown {
+        private final AtomicLong waits = new AtomicLong();
+        private final AtomicLong waitMillis = new AtomicLong();
+        private final LatencyHistogram heals = new LatencyHistogram();
+        private final AtomicLong healSuccesses = new AtomicLong();
+
+        void addWait(long millis) {
+            waits.incrementAndGet();
+            waitMillis.addAndGet(millis);
+        }
+
+        void addHeal(long millis, boolean healed) {
+            heals.record(millis);
+            if (healed) healSuccesses.incrementAndGet();
+        }
+
+        public long getWaits() {
+            return waits.get();
+        }
+
+        public long getWaitMillis() {
+            return waitMillis.get();
+        }
+
+        public LatencyHistogram getHeals() {
+            return heals;
+        }
+
+        public long getHealSuccesses() {
+            return healSuccesses.get();
+        }
+
+        public long getHealFailures() {
+            return heals.getCount() - healSuccesses.get();
+        }
+
+        /**
+         * Time spent on the locator or page because something broke: waiting plus healing
+         */
+        public long getCostMillis() {
+            return waitMillis.get() + heals.getTotalMillis();
+        }
+
+        @Override
+        public String toString() {
+            return "cost=" + getCostMillis() + "ms waits=" + getWaits() + " wait=" + getWaitMillis()
+                    + "ms heals=" + heals.getCount() + " healed=" + getHealSuccesses() + " heal[" + heals + "]";
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.fawry;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link HealingMetrics}, registered as com.fawry.healing:type=HealingMetrics
+ */
+public interface HealingMetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    /**
+     * Summary line (count, mean, p50, p99, max) of each histogram
+     */
+    Map<String, String> getHistograms();
+
+    long getHealAttempts();
+
+    long getHealSuccesses();
+
+    long getHealFailures();
+
+    /**
+     * Locators by time spent waiting on and healing them, most expensive first
+     */
+    Map<String, String> getCostliestLocators();
+
+    /**
+     * Pages by time spent waiting on and healing their locators, most expensive first
+     */
+    Map<String, String> getCostliestPages();
+
+    String getJsonSummary();
+
+    void reset();
+}
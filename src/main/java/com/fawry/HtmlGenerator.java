@@ -4,125 +4,168 @@ import com.fawry.utilities.Log;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.jsoup.nodes.Node;
+import org.jsoup.parser.Parser;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WrapsDriver;
 
-import java.io.*;
-import java.nio.file.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 
+/**
+ * Turns the page captured at heal time into the jsoup snapshot handed to the healers.
+ * <p>
+ * Archiving snapshots in {@link SnapshotArchive} is a debugging side-channel only: it is off unless
+ * healing.snapshots.enabled=true and then runs on a background thread, never on the heal's critical path:
+ * the heal only hands over a copy of the snapshot, which is serialized and written there.
+ * Snapshots are archived under the locators being healed and the page URL, so they can be found again.
+ */
 public class HtmlGenerator {
-    private static final String HTML_OUTPUT_DIR = "html_snapshots";
-    private static final DateTimeFormatter FILE_TIMESTAMP_FORMAT =
-            DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
-    private static boolean filesCleaned = false;
+    private static final HealingMetrics metrics = HealingMetrics.getDefault();
 
-    public void generatePageHTML(String htmlSource) throws Exception {
-        initializeHtmlDirectory();
+    private final boolean persistSnapshots;
 
-        Document document = Jsoup.parse(htmlSource);
-        List<String> xpaths = generateAllXPaths(document);
-        saveHtmlToFile(document.outerHtml(), xpaths);
+    public HtmlGenerator() {
+        this(HealingConfig.getBoolean("healing.snapshots.enabled", false));
     }
 
-    private void initializeHtmlDirectory() {
-        try {
-            Files.createDirectories(Paths.get(HTML_OUTPUT_DIR));
-            if (!filesCleaned) {
-                cleanUpPreviousFiles();
-                filesCleaned = true;
-            }
-        } catch (IOException e) {
-            Log.error("Failed to initialize HTML output directory:");
-            e.printStackTrace();
+    public HtmlGenerator(boolean persistSnapshots) {
+        this.persistSnapshots = persistSnapshots;
+    }
+
+    /**
+     * Snapshot of the live page: the browser probe's compact inventory when available,
+     * otherwise the full page source
+     */
+    public Document capturePage(WebDriver driver, BrowserProbe probe) {
+        return capturePage(driver, probe, List.of());
+    }
+
+    /**
+     * {@link #capturePage(WebDriver, BrowserProbe)}, archived under the locators it is captured to heal
+     */
+    public Document capturePage(WebDriver driver, BrowserProbe probe, Collection<String> locators) {
+        return capturePage(driver, probe, locators, persistSnapshots ? currentUrl(driver) : "");
+    }
+
+    /**
+     * {@link #capturePage(WebDriver, BrowserProbe, Collection)} for a caller that already knows the page URL
+     */
+    public Document capturePage(WebDriver driver, BrowserProbe probe, Collection<String> locators, String page) {
+        long start = System.nanoTime();
+        Document document = probe == null ? null : probe.captureInventory();
+        if (document == null) {
+            document = Jsoup.parse(driver.getPageSource());
         }
+        metrics.record(HealingMetrics.CAPTURE, (System.nanoTime() - start) / 1_000_000);
+        persistAsync(document, locators, page);
+        return document;
     }
 
-    private void cleanUpPreviousFiles() throws IOException {
-        Files.walk(Paths.get(HTML_OUTPUT_DIR))
-                .filter(Files::isRegularFile)
-                .filter(path -> path.toString().endsWith(".html"))
-                .forEach(path -> {
-                    try {
-                        Files.delete(path);
-                    } catch (IOException e) {
-                        Log.error("Failed to delete file: " + path);
-                    }
-                });
+    /**
+     * Snapshot of the element's subtree only, for lookups made from a WebElement. The element is
+     * the first child of the returned document; null when it cannot be read (e.g. it went stale).
+     */
+    public Document captureElement(WebElement element, BrowserProbe probe) {
+        return captureElement(element, probe, List.of());
     }
 
-    private List<String> generateAllXPaths(Document document) {
-        List<String> xpaths = new ArrayList<>();
-        Elements allElements = document.getAllElements();
+    /**
+     * {@link #captureElement(WebElement, BrowserProbe)}, archived under the locators it is captured to heal
+     */
+    public Document captureElement(WebElement element, BrowserProbe probe, Collection<String> locators) {
+        WebDriver driver = element instanceof WrapsDriver ? ((WrapsDriver) element).getWrappedDriver() : null;
+        return captureElement(element, probe, locators, persistSnapshots ? currentUrl(driver) : "");
+    }
 
-        for (Element element : allElements) {
-            if (!element.tagName().equals("#root")) {
-                String xpath = generateXPath(element);
-                if (!xpath.isEmpty()) {
-                    xpaths.add(xpath);
+    /**
+     * {@link #captureElement(WebElement, BrowserProbe, Collection)} for a caller that already knows the page URL
+     */
+    public Document captureElement(WebElement element, BrowserProbe probe, Collection<String> locators, String page) {
+        long start = System.nanoTime();
+        Document document = probe == null ? null : probe.captureInventory(element);
+        if (document == null) {
+            try {
+                String outerHtml = element.getDomProperty("outerHTML");
+                if (outerHtml == null) return null;
+                document = new Document("");
+                // Parse in the context of a plausible parent, so a <tr> or <li> is not dropped as misplaced
+                for (Node node : Parser.parseFragment(outerHtml, new Element(fragmentParent(element.getTagName())), "")) {
+                    document.appendChild(node);
                 }
+            } catch (WebDriverException e) {
+                Log.error("Unable to read the search context element", e);
+                return null;
             }
         }
-        return xpaths;
+        if (document.children().isEmpty()) return null;
+        metrics.record(HealingMetrics.CAPTURE, (System.nanoTime() - start) / 1_000_000);
+        persistAsync(document, locators, page);
+        return document;
     }
 
-    private String generateXPath(Element element) {
-        Deque<String> hierarchy = new ArrayDeque<>();
-        Element current = element;
-        while (current != null && !current.tagName().equals("#root")) {
-            String tag = current.tagName();
-            String id = current.id();
-            if (!id.isEmpty()) {
-                hierarchy.addFirst(tag + "[@id='" + id + "']");
-                break; // id is unique, stop here
-            } else {
-                int index = getElementIndex(current);
-                hierarchy.addFirst(index > 1 ? tag + "[" + index + "]" : tag);
-            }
-            current = current.parent();
-        }
-        StringBuilder xpath = new StringBuilder();
-        for (String level : hierarchy) {
-            xpath.append("/").append(level);
+    private static String fragmentParent(String tag) {
+        switch (tag.toLowerCase(Locale.ROOT)) {
+            case "tr":
+                return "tbody";
+            case "td":
+            case "th":
+                return "tr";
+            case "thead":
+            case "tbody":
+            case "tfoot":
+            case "caption":
+                return "table";
+            case "li":
+                return "ul";
+            case "option":
+            case "optgroup":
+                return "select";
+            default:
+                return "body";
         }
-        return xpath.toString();
     }
 
-    private int getElementIndex(Element element) {
-        if (element.parent() == null) return 1;
-        int index = 1;
-        for (Element sibling : element.parent().children()) {
-            if (sibling == element) break;
-            if (sibling.tagName().equals(element.tagName())) index++;
+    /**
+     * Parse the page source into the in-memory snapshot; persisting it is optional and asynchronous
+     */
+    public Document generatePageHTML(String htmlSource) {
+        Document document = Jsoup.parse(htmlSource);
+        if (persistSnapshots) {
+            SnapshotArchive.getDefault().archiveAsync(htmlSource, List.of(), "");
         }
-        return index;
+        return document;
     }
 
-    private void saveHtmlToFile(String htmlContent, List<String> xpaths) throws IOException {
-        String timestamp = LocalDateTime.now().format(FILE_TIMESTAMP_FORMAT);
-        String filename = HTML_OUTPUT_DIR + "/snapshot_" + timestamp + ".html";
-        Path filePath = Paths.get(filename);
+    /**
+     * Hand the archive a copy, so the healers can go on with the snapshot while it is serialized
+     */
+    private void persistAsync(Document document, Collection<String> locators, String page) {
+        if (!persistSnapshots) return;
+        Document copy = document.clone();
+        SnapshotArchive.getDefault().archiveAsync(copy::outerHtml, locators, page);
+    }
 
-        try (BufferedWriter writer = Files.newBufferedWriter(filePath)) {
-            writer.write(htmlContent);
-            Log.info("Saved HTML snapshot to: " + filePath.toAbsolutePath());
+    private static String currentUrl(WebDriver driver) {
+        if (driver == null) return "";
+        try {
+            String url = driver.getCurrentUrl();
+            return url == null ? "" : url;
+        } catch (WebDriverException e) {
+            return "";
         }
     }
+
+    /**
+     * Remove every archived snapshot. Snapshots are no longer wiped before a heal; the archive's
+     * retention keeps its size in check.
+     *
+     * @deprecated use {@link SnapshotArchive#clear()}
+     */
+    @Deprecated
     public void clearHTMLSnapshotsDirectory() {
-        try {
-            Files.walk(Paths.get(HTML_OUTPUT_DIR))
-                    .filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS))
-                    .forEach(path -> {
-                        try {
-                            Files.delete(path);
-                        } catch (IOException e) {
-                            Log.error("Failed to delete file: " + path, e);
-                        }
-                    });
-            Log.info("Cleared html_snapshots directory.");
-        } catch (IOException e) {
-            Log.error("Failed to clear html_snapshots directory.", e);
-        }
+        SnapshotArchive.getDefault().clear();
+        Log.info("Cleared html_snapshots directory.");
     }
 }
@@ -0,0 +1,69 @@
+package com.fawry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed millisecond buckets.
+ * Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+    private static final long[] BOUNDS_MS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 300, 500, 750, 1_000, 1_500, 2_000, 3_000,
+            5_000, 7_500, 10_000, 15_000, 20_000, 30_000, 60_000, 120_000, Long.MAX_VALUE};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MS.length);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMs = new AtomicLong();
+    private final AtomicLong maxMs = new AtomicLong();
+
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        int bucket = 0;
+        while (value > BOUNDS_MS[bucket]) bucket++;
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMs.addAndGet(value);
+        maxMs.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalMillis() {
+        return totalMs.get();
+    }
+
+    public long getMaxMillis() {
+        return maxMs.get();
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) totalMs.get() / n;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0-100), capped at the largest value seen
+     */
+    public long getPercentileMillis(double percentile) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(BOUNDS_MS[i], maxMs.get());
+            }
+        }
+        return maxMs.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.0fms p50=%dms p99=%dms max=%dms",
+                getCount(), getMeanMillis(), getPercentileMillis(50), getPercentileMillis(99), getMaxMillis());
+    }
+}
@@ -0,0 +1,542 @@
+package com.fawry;
+
+import com.fawry.utilities.Log;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.util.*;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process healer that handles the trivial breakages (renamed id, changed class suffix,
+ * reworded text) without calling the model.
+ * <p>
+ * The damaged locator is parsed into its intent (tag, id, name, class tokens, text and other
+ * attributes), the snapshot elements that share a token with it (see {@link DomIndex}) are scored
+ * by similarity to that intent, and a unique locator is built for the winner. Nothing is returned
+ * unless the winner clears the confidence threshold and beats the runner-up by a clear margin;
+ * the caller then falls back to the model.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.local.enabled - try the local healer first (default true)</li>
+ *     <li>healing.local.threshold - minimum score in [0, 1] to accept a match (default 0.75)</li>
+ *     <li>healing.local.margin - minimum lead over the second best candidate (default 0.1)</li>
+ * </ul>
+ */
+public class LocalHealer {
+    private static final double ID_WEIGHT = 3.0;
+    private static final double NAME_WEIGHT = 2.5;
+    private static final double TEXT_WEIGHT = 2.5;
+    private static final double CLASS_WEIGHT = 1.5;
+    private static final double ATTRIBUTE_WEIGHT = 1.5;
+    private static final double TAG_WEIGHT = 1.0;
+    private static final double PATH_WEIGHT = 1.5;
+    private static final double POSITION_WEIGHT = 0.5;
+    private static final int MAX_TEXT = 100;
+
+    private static final Pattern XPATH_TAG = Pattern.compile("(?:^|/)([a-zA-Z][\\w-]*|\\*)\\s*(?:\\[|$)");
+    private static final Pattern XPATH_ATTRIBUTE =
+            Pattern.compile("(?:contains|starts-with)?\\(?\\s*@([\\w:-]+)\\s*(?:=|,)\\s*(['\"])(.*?)\\2");
+    private static final Pattern XPATH_TEXT =
+            Pattern.compile("(?:text\\(\\)|normalize-space\\((?:text\\(\\)|\\.)?\\)|\\.)\\s*(?:=|,)\\s*(['\"])(.*?)\\1");
+    private static final Pattern CSS_TAG = Pattern.compile("^([a-zA-Z][\\w-]*)");
+    private static final Pattern CSS_ID = Pattern.compile("#([\\w-]+)");
+    private static final Pattern CSS_CLASS = Pattern.compile("\\.([\\w-]+)");
+    private static final Pattern CSS_ATTRIBUTE = Pattern.compile("\\[\\s*([\\w:-]+)\\s*[~|^$*]?=\\s*['\"]?([^'\"\\]]*)['\"]?\\s*]");
+
+    private final boolean enabled;
+    private final double threshold;
+    private final double margin;
+    // Index of the last snapshot healed against, shared by the heals of one page
+    private DomIndex index;
+
+    public LocalHealer() {
+        this(HealingConfig.getBoolean("healing.local.enabled", true),
+                HealingConfig.getDouble("healing.local.threshold", 0.75),
+                HealingConfig.getDouble("healing.local.margin", 0.1));
+    }
+
+    public LocalHealer(boolean enabled, double threshold, double margin) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.margin = margin;
+    }
+
+    /**
+     * Heal the raw locator ("By.xpath: //...") against the snapshot, or null when not confident
+     */
+    public org.openqa.selenium.By heal(String rawLocator, Document document) {
+        return heal(rawLocator, document, null);
+    }
+
+    /**
+     * Heal among the descendants of scope only, returning a locator relative to it
+     * (as used from WebElement.findElement); the whole document when scope is null
+     */
+    public org.openqa.selenium.By heal(String rawLocator, Document document, Element scope) {
+        if (!enabled || document == null) return null;
+        Element root = scope != null ? scope : document;
+        long start = System.nanoTime();
+        Intent intent = Intent.parse(rawLocator);
+        if (!intent.isUsable()) {
+            Log.info("🔎 Local healer: nothing to match on for " + rawLocator);
+            return null;
+        }
+        DomIndex index = indexFor(root);
+        Map.Entry<Element, Double> best = bestMatch(index.candidates(intent.queryTokens(), intent.tag),
+                candidate -> score(intent, candidate), rawLocator, start);
+        if (best == null) return null;
+        org.openqa.selenium.By healed = buildLocator(intent, best.getKey(), index);
+        Log.info(() -> String.format("⚡ Local healer matched %s -> %s (score %.2f, %d ms)",
+                rawLocator, healed, best.getValue(), (System.nanoTime() - start) / 1_000_000));
+        return healed;
+    }
+
+    /**
+     * Re-identify the element the locator matched while it worked, from its recorded fingerprint
+     */
+    public org.openqa.selenium.By heal(String rawLocator, ElementFingerprint fingerprint, Document document, Element scope) {
+        if (!enabled || document == null || fingerprint == null) return null;
+        Element root = scope != null ? scope : document;
+        long start = System.nanoTime();
+        DomIndex index = indexFor(root);
+        Set<String> query = new HashSet<>();
+        fingerprint.getAttributes().forEach((key, value) -> {
+            query.addAll(tokens(value));
+            if ("id".equals(key) || "name".equals(key)) query.addAll(DomIndex.trigrams(value));
+        });
+        // Same-tag elements too, an element whose attributes all changed is still found by text and position
+        Set<Element> candidates = new LinkedHashSet<>(index.candidates(query, fingerprint.getTag()));
+        candidates.addAll(index.byTag(fingerprint.getTag()));
+        Map.Entry<Element, Double> best = bestMatch(candidates, candidate -> score(fingerprint, candidate, index),
+                rawLocator + " (fingerprint)", start);
+        if (best == null) return null;
+        org.openqa.selenium.By healed = buildLocator(Intent.parse(rawLocator), best.getKey(), index);
+        Log.info(() -> String.format("🖐️ Fingerprint matched %s -> %s (score %.2f, %d ms)",
+                rawLocator, healed, best.getValue(), (System.nanoTime() - start) / 1_000_000));
+        return healed;
+    }
+
+    /**
+     * Index of root, built once and reused while this healer heals against the same snapshot
+     */
+    private DomIndex indexFor(Element root) {
+        if (index == null || index.getRoot() != root) {
+            index = DomIndex.build(root);
+        }
+        return index;
+    }
+
+    /**
+     * Highest scoring candidate with its score, or null unless it clears the threshold and the margin
+     */
+    private Map.Entry<Element, Double> bestMatch(Collection<Element> candidates, ToDoubleFunction<Element> scorer, String rawLocator, long start) {
+        Element best = null;
+        double bestScore = 0;
+        double secondScore = 0;
+        for (Element candidate : candidates) {
+            double score = scorer.applyAsDouble(candidate);
+            if (score > bestScore) {
+                secondScore = bestScore;
+                bestScore = score;
+                best = candidate;
+            } else if (score > secondScore) {
+                secondScore = score;
+            }
+        }
+
+        if (best == null || bestScore < threshold || bestScore - secondScore < margin) {
+            Log.info(String.format("🔎 Local healer not confident for %s (best %.2f, runner-up %.2f, %d ms)",
+                    rawLocator, bestScore, secondScore, (System.nanoTime() - start) / 1_000_000));
+            return null;
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(best, bestScore);
+    }
+
+    double score(ElementFingerprint fingerprint, Element candidate, DomIndex index) {
+        double total = TAG_WEIGHT * (fingerprint.getTag().equals(candidate.tagName()) ? 1 : 0);
+        double weights = TAG_WEIGHT;
+        for (Map.Entry<String, String> attribute : fingerprint.getAttributes().entrySet()) {
+            String key = attribute.getKey();
+            if ("class".equals(key)) {
+                total += CLASS_WEIGHT * classSimilarity(new LinkedHashSet<>(Arrays.asList(attribute.getValue().trim().split("\\s+"))),
+                        candidate.classNames());
+                weights += CLASS_WEIGHT;
+            } else {
+                double weight = "id".equals(key) ? ID_WEIGHT : "name".equals(key) ? NAME_WEIGHT : ATTRIBUTE_WEIGHT;
+                total += weight * similarity(attribute.getValue(), candidate.attr(key));
+                weights += weight;
+            }
+        }
+        if (fingerprint.getTextHash() != 0) {
+            total += TEXT_WEIGHT * (ElementFingerprint.hashText(candidate.text()) == fingerprint.getTextHash() ? 1 : 0);
+            weights += TEXT_WEIGHT;
+        }
+        if (!fingerprint.getAncestors().isEmpty()) {
+            List<String> ancestors = ElementFingerprint.ancestorsOf(candidate);
+            int same = 0;
+            for (int i = 0; i < Math.min(ancestors.size(), fingerprint.getAncestors().size()); i++) {
+                if (ancestors.get(i).equals(fingerprint.getAncestors().get(i))) same++;
+            }
+            total += PATH_WEIGHT * same / fingerprint.getAncestors().size();
+            weights += PATH_WEIGHT;
+        }
+        if (fingerprint.getSiblingIndex() > 0) {
+            total += POSITION_WEIGHT * (index.positionOf(candidate) == fingerprint.getSiblingIndex() ? 1 : 0);
+            weights += POSITION_WEIGHT;
+        }
+        return total / weights;
+    }
+
+    double score(Intent intent, Element candidate) {
+        double total = 0;
+        double weights = 0;
+        if (intent.id != null) {
+            total += ID_WEIGHT * Math.max(similarity(intent.id, candidate.id()), 0.8 * similarity(intent.id, candidate.attr("name")));
+            weights += ID_WEIGHT;
+        }
+        if (intent.name != null) {
+            total += NAME_WEIGHT * Math.max(similarity(intent.name, candidate.attr("name")), 0.8 * similarity(intent.name, candidate.id()));
+            weights += NAME_WEIGHT;
+        }
+        if (!intent.classes.isEmpty()) {
+            total += CLASS_WEIGHT * classSimilarity(intent.classes, candidate.classNames());
+            weights += CLASS_WEIGHT;
+        }
+        if (intent.text != null) {
+            total += TEXT_WEIGHT * textSimilarity(intent.text, intent.partialText, candidateText(candidate));
+            weights += TEXT_WEIGHT;
+        }
+        for (Map.Entry<String, String> attribute : intent.attributes.entrySet()) {
+            total += ATTRIBUTE_WEIGHT * similarity(attribute.getValue(), candidate.attr(attribute.getKey()));
+            weights += ATTRIBUTE_WEIGHT;
+        }
+        if (intent.tag != null) {
+            total += TAG_WEIGHT * (intent.tag.equalsIgnoreCase(candidate.tagName()) ? 1 : 0);
+            weights += TAG_WEIGHT;
+        }
+        return weights == 0 ? 0 : total / weights;
+    }
+
+    /**
+     * Shortest stable locator that matches only the element: id, name, link text, text, class, then position
+     */
+    org.openqa.selenium.By buildLocator(Intent intent, Element element, DomIndex index) {
+        String tag = element.tagName();
+        // XPaths from an element context must start with "." or they search the whole page
+        String descendant = index.getRoot() instanceof Document ? "//" : ".//";
+        if (!element.id().isEmpty() && index.byId(element.id()).size() == 1) {
+            return org.openqa.selenium.By.id(element.id());
+        }
+        String name = element.attr("name");
+        if (!name.isEmpty() && index.byName(name).size() == 1) {
+            return org.openqa.selenium.By.name(name);
+        }
+        String text = element.ownText().trim();
+        if (!text.isEmpty() && text.length() <= MAX_TEXT) {
+            if ("a".equals(tag) && "linkText".equals(intent.type) && element.text().trim().equals(text)) {
+                return org.openqa.selenium.By.linkText(text);
+            }
+            String literal = xpathLiteral(text);
+            if (literal != null && countWithText(index, tag, text) == 1) {
+                return org.openqa.selenium.By.xpath(descendant + tag + "[normalize-space()=" + literal + "]");
+            }
+        }
+        for (String className : element.classNames()) {
+            String literal = xpathLiteral(className);
+            if (literal == null || countWithClass(index, tag, className) != 1) continue;
+            return org.openqa.selenium.By.xpath(descendant + tag
+                    + "[contains(concat(' ', normalize-space(@class), ' '), " + xpathLiteral(" " + className + " ") + ")]");
+        }
+        return org.openqa.selenium.By.xpath(positionalXPath(element, index));
+    }
+
+    /**
+     * Elements matching //tag[normalize-space()=text], looked up through the text tokens
+     */
+    private static int countWithText(DomIndex index, String tag, String text) {
+        int count = 0;
+        for (Element candidate : index.candidates(tokens(text), tag)) {
+            if (candidate.tagName().equals(tag) && candidate.text().trim().equals(text)) count++;
+        }
+        return count;
+    }
+
+    private static int countWithClass(DomIndex index, String tag, String className) {
+        int count = 0;
+        for (Element candidate : index.byClass(className)) {
+            if (candidate.tagName().equals(tag)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Path from the nearest ancestor with an id, with positional predicates where needed;
+     * relative ("./...") when it reaches the scope element first. Built from the index's paths,
+     * where the tail below the ancestor is the element's path minus the ancestor's.
+     */
+    static String positionalXPath(Element element, DomIndex index) {
+        Element scope = index.getRoot() instanceof Document ? null : index.getRoot();
+        String path = index.pathOf(element);
+        for (Element ancestor = element.parent(); ancestor != null && ancestor != scope; ancestor = ancestor.parent()) {
+            String id = ancestor.id();
+            String ancestorPath = index.pathOf(ancestor);
+            if (id.isEmpty() || xpathLiteral(id) == null || ancestorPath == null) continue;
+            return (scope != null ? ".//" : "//") + ancestor.tagName() + "[@id=" + xpathLiteral(id) + "]"
+                    + path.substring(ancestorPath.length());
+        }
+        return path;
+    }
+
+    static String xpathLiteral(String value) {
+        if (!value.contains("'")) return "'" + value + "'";
+        if (!value.contains("\"")) return "\"" + value + "\"";
+        return null;
+    }
+
+    private static String candidateText(Element candidate) {
+        String own = candidate.ownText();
+        if (!own.isBlank()) return own;
+        String text = candidate.text();
+        return text.length() <= MAX_TEXT ? text : "";
+    }
+
+    private static double textSimilarity(String expected, boolean partial, String actual) {
+        if (actual.isEmpty()) return 0;
+        String a = expected.trim().toLowerCase(Locale.ROOT);
+        String b = actual.trim().toLowerCase(Locale.ROOT);
+        if (partial && b.contains(a)) return 1;
+        return similarity(a, b);
+    }
+
+    private static double classSimilarity(Set<String> expected, Set<String> actual) {
+        if (actual.isEmpty()) return 0;
+        double sum = 0;
+        for (String className : expected) {
+            double best = 0;
+            for (String candidate : actual) {
+                best = Math.max(best, similarity(className, candidate));
+            }
+            sum += best;
+        }
+        return sum / expected.size();
+    }
+
+    /**
+     * Best of edit-distance similarity and word-token overlap, so "login-btn" ~ "loginButton"
+     * and "btn-primary-v2" ~ "btn-primary-v3" both score high
+     */
+    static double similarity(String expected, String actual) {
+        if (expected == null || actual == null || actual.isEmpty()) return 0;
+        String a = expected.toLowerCase(Locale.ROOT);
+        String b = actual.toLowerCase(Locale.ROOT);
+        if (a.equals(b)) return 1;
+        if (a.length() > MAX_TEXT) a = a.substring(0, MAX_TEXT);
+        if (b.length() > MAX_TEXT) b = b.substring(0, MAX_TEXT);
+        double edit = 1.0 - (double) levenshtein(a, b) / Math.max(a.length(), b.length());
+        return Math.max(edit, tokenOverlap(expected, actual));
+    }
+
+    private static double tokenOverlap(String expected, String actual) {
+        Set<String> a = tokens(expected);
+        Set<String> b = tokens(actual);
+        if (a.isEmpty() || b.isEmpty()) return 0;
+        Set<String> common = new HashSet<>(a);
+        common.retainAll(b);
+        Set<String> all = new HashSet<>(a);
+        all.addAll(b);
+        return (double) common.size() / all.size();
+    }
+
+    /**
+     * Lower-cased ASCII words, split at non-alphanumerics and camelCase humps ("loginBtn-2" -> login, btn, 2)
+     */
+    static Set<String> tokens(String value) {
+        Set<String> tokens = new HashSet<>();
+        StringBuilder token = new StringBuilder();
+        char previous = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean upper = c >= 'A' && c <= 'Z';
+            boolean wordChar = upper || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+            if (!wordChar || (upper && previous >= 'a' && previous <= 'z')) {
+                if (token.length() > 0) tokens.add(token.toString());
+                token.setLength(0);
+            }
+            if (wordChar) token.append(upper ? (char) (c + ('a' - 'A')) : c);
+            previous = c;
+        }
+        if (token.length() > 0) tokens.add(token.toString());
+        return tokens;
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * What the damaged locator was trying to match
+     */
+    static final class Intent {
+        String type;
+        String tag;
+        String id;
+        String name;
+        String text;
+        boolean partialText;
+        final Set<String> classes = new LinkedHashSet<>();
+        final Map<String, String> attributes = new LinkedHashMap<>();
+
+        /**
+         * Keys that retrieve candidate elements from a {@link DomIndex}
+         */
+        Set<String> queryTokens() {
+            Set<String> query = new HashSet<>();
+            if (id != null) {
+                query.addAll(tokens(id));
+                query.addAll(DomIndex.trigrams(id));
+            }
+            if (name != null) {
+                query.addAll(tokens(name));
+                query.addAll(DomIndex.trigrams(name));
+            }
+            classes.forEach(className -> query.addAll(tokens(className)));
+            if (text != null) query.addAll(tokens(text));
+            attributes.values().forEach(value -> query.addAll(tokens(value)));
+            return query;
+        }
+
+        boolean isUsable() {
+            return id != null || name != null || text != null || !classes.isEmpty() || !attributes.isEmpty();
+        }
+
+        static Intent parse(String rawLocator) {
+            Intent intent = new Intent();
+            String raw = rawLocator.trim();
+            int separator = raw.indexOf(": ");
+            intent.type = raw.startsWith("By.") && separator > 0 ? raw.substring(3, separator) : "xpath";
+            String value = Locators.clean(raw);
+            switch (intent.type) {
+                case "id":
+                    intent.id = value;
+                    break;
+                case "name":
+                    intent.name = value;
+                    break;
+                case "className":
+                    intent.classes.addAll(Arrays.asList(value.split("\\s+")));
+                    break;
+                case "tagName":
+                    intent.tag = value;
+                    break;
+                case "linkText":
+                case "partialLinkText":
+                    intent.tag = "a";
+                    intent.text = value;
+                    intent.partialText = "partialLinkText".equals(intent.type);
+                    break;
+                case "cssSelector":
+                    intent.parseCss(value);
+                    break;
+                default:
+                    intent.parseXPath(value);
+            }
+            return intent;
+        }
+
+        /**
+         * Only the last step of the path describes the target itself
+         */
+        private void parseXPath(String xpath) {
+            String step = lastStep(xpath);
+            Matcher tagMatcher = XPATH_TAG.matcher(step);
+            if (tagMatcher.find() && !"*".equals(tagMatcher.group(1))) {
+                tag = tagMatcher.group(1).toLowerCase(Locale.ROOT);
+            }
+            Matcher attributeMatcher = XPATH_ATTRIBUTE.matcher(step);
+            while (attributeMatcher.find()) {
+                String attribute = attributeMatcher.group(1).toLowerCase(Locale.ROOT);
+                String attributeValue = attributeMatcher.group(3);
+                if ("id".equals(attribute)) {
+                    id = attributeValue;
+                } else if ("name".equals(attribute)) {
+                    name = attributeValue;
+                } else if ("class".equals(attribute)) {
+                    classes.addAll(Arrays.asList(attributeValue.trim().split("\\s+")));
+                } else {
+                    attributes.put(attribute, attributeValue);
+                }
+            }
+            Matcher textMatcher = XPATH_TEXT.matcher(step);
+            if (textMatcher.find()) {
+                text = textMatcher.group(2);
+                partialText = step.contains("contains(");
+            }
+        }
+
+        private void parseCss(String css) {
+            String[] compounds = css.trim().split("\\s*[\\s>+~]\\s*");
+            String last = compounds[compounds.length - 1];
+            Matcher tagMatcher = CSS_TAG.matcher(last);
+            if (tagMatcher.find()) tag = tagMatcher.group(1).toLowerCase(Locale.ROOT);
+            String withoutAttributes = last.replaceAll("\\[[^]]*]", "");
+            Matcher idMatcher = CSS_ID.matcher(withoutAttributes);
+            if (idMatcher.find()) id = idMatcher.group(1);
+            Matcher classMatcher = CSS_CLASS.matcher(withoutAttributes);
+            while (classMatcher.find()) classes.add(classMatcher.group(1));
+            Matcher attributeMatcher = CSS_ATTRIBUTE.matcher(last);
+            while (attributeMatcher.find()) {
+                String attribute = attributeMatcher.group(1).toLowerCase(Locale.ROOT);
+                if ("id".equals(attribute)) {
+                    id = attributeMatcher.group(2);
+                } else if ("name".equals(attribute)) {
+                    name = attributeMatcher.group(2);
+                } else if ("class".equals(attribute)) {
+                    classes.addAll(Arrays.asList(attributeMatcher.group(2).trim().split("\\s+")));
+                } else {
+                    attributes.put(attribute, attributeMatcher.group(2));
+                }
+            }
+        }
+
+        /**
+         * Text after the last "/" that is not inside a predicate or a string literal
+         */
+        private static String lastStep(String xpath) {
+            int depth = 0;
+            char quote = 0;
+            int start = 0;
+            for (int i = 0; i < xpath.length(); i++) {
+                char c = xpath.charAt(i);
+                if (quote != 0) {
+                    if (c == quote) quote = 0;
+                } else if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '[' || c == '(') {
+                    depth++;
+                } else if (c == ']' || c == ')') {
+                    depth--;
+                } else if (c == '/' && depth == 0) {
+                    start = i + 1;
+                }
+            }
+            return xpath.substring(start);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.fawry;
+
+import org.jsoup.nodes.Element;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Conversions between Selenium locators and their (type, value) form,
+ * used wherever a locator has to be stored, keyed or rebuilt.
+ */
+final class Locators {
+    private static final Pattern CALL = Pattern.compile("^By\\.(\\w+)\\((.*)\\)$", Pattern.DOTALL);
+    private static final Pattern PREFIXED = Pattern.compile("^By\\.(\\w+): (.*)$", Pattern.DOTALL);
+
+    private Locators() {
+    }
+
+    /**
+     * "By.xpath: //a" -> "xpath"
+     */
+    static String typeOf(org.openqa.selenium.By by) {
+        String text = by.toString();
+        int separator = text.indexOf(": ");
+        if (!text.startsWith("By.") || separator < 0) {
+            return "xpath";
+        }
+        return text.substring(3, separator);
+    }
+
+    /**
+     * "By.xpath: //a" -> "//a"
+     */
+    static String valueOf(org.openqa.selenium.By by) {
+        String text = by.toString();
+        int separator = text.indexOf(": ");
+        return separator < 0 ? text : text.substring(separator + 2);
+    }
+
+    /**
+     * Strip the "By.xxx: " prefix Selenium adds in toString()
+     */
+    static String clean(String rawLocator) {
+        return rawLocator.replace("By.xpath: ", "").replace("By.id: ", "").replace("By.name: ", "").replace("By.cssSelector: ", "").replace("By.className: ", "").replace("By.tagName: ", "").replace("By.linkText: ", "").replace("By.partialLinkText: ", "").trim();
+    }
+
+    /**
+     * Parse a locator written as By.id("x"), By.id: x, or a bare XPath
+     */
+    static org.openqa.selenium.By parse(String text) {
+        String locator = text.trim();
+        Matcher call = CALL.matcher(locator);
+        if (call.matches()) {
+            return create(call.group(1), unquote(call.group(2).trim()));
+        }
+        Matcher prefixed = PREFIXED.matcher(locator);
+        if (prefixed.matches()) {
+            return create(prefixed.group(1), prefixed.group(2));
+        }
+        return org.openqa.selenium.By.xpath(locator);
+    }
+
+    /**
+     * XPath made relative to the search context ("//a" -> ".//a"); other types already search descendants only
+     */
+    static org.openqa.selenium.By relative(org.openqa.selenium.By by) {
+        if (!"xpath".equals(typeOf(by))) return by;
+        String xpath = valueOf(by).trim();
+        if (xpath.startsWith("/")) return org.openqa.selenium.By.xpath("." + xpath);
+        if (xpath.startsWith("(/")) return org.openqa.selenium.By.xpath("(." + xpath.substring(1));
+        return by;
+    }
+
+    /**
+     * Elements the locator matches in a jsoup snapshot, or -1 when it cannot be evaluated there
+     */
+    static int matchCount(Element root, org.openqa.selenium.By by) {
+        String value = valueOf(by);
+        try {
+            switch (typeOf(by)) {
+                case "id":
+                    return root.getElementsByAttributeValue("id", value).size();
+                case "name":
+                    return root.getElementsByAttributeValue("name", value).size();
+                case "className":
+                    return root.getElementsByClass(value).size();
+                case "tagName":
+                    return root.getElementsByTag(value).size();
+                case "cssSelector":
+                    return root.select(value).size();
+                case "linkText":
+                case "partialLinkText":
+                    boolean partial = "partialLinkText".equals(typeOf(by));
+                    int count = 0;
+                    for (Element link : root.getElementsByTag("a")) {
+                        String text = link.text().trim();
+                        if (partial ? text.contains(value) : text.equals(value)) count++;
+                    }
+                    return count;
+                default:
+                    return root.selectXpath(value).size();
+            }
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2) {
+            char first = value.charAt(0);
+            if ((first == '"' || first == '\'') && value.charAt(value.length() - 1) == first) {
+                return value.substring(1, value.length() - 1);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Name of the By factory for a locator type as models and people write it ("css", "CSS selector",
+     * "class_name", "By.id"), case-insensitively; null when the type is unknown
+     */
+    static String normalizeType(String type) {
+        String name = type.trim();
+        if (name.startsWith("By.")) name = name.substring(3);
+        switch (name.replaceAll("[\\s_-]", "").toLowerCase(Locale.ROOT)) {
+            case "xpath":
+                return "xpath";
+            case "id":
+                return "id";
+            case "name":
+                return "name";
+            case "css":
+            case "cssselector":
+            case "selector":
+                return "cssSelector";
+            case "class":
+            case "classname":
+                return "className";
+            case "tag":
+            case "tagname":
+                return "tagName";
+            case "link":
+            case "linktext":
+                return "linkText";
+            case "partiallink":
+            case "partiallinktext":
+                return "partialLinkText";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The locator written as an XPath, or null for a CSS selector, which has no general XPath form
+     */
+    static String toXPath(org.openqa.selenium.By by) {
+        String type = typeOf(by);
+        String value = valueOf(by);
+        if ("xpath".equals(type)) return value;
+        if ("tagName".equals(type)) return "//" + value;
+        String literal = LocalHealer.xpathLiteral(value);
+        if (literal == null) return null;
+        switch (type) {
+            case "id":
+                return "//*[@id=" + literal + "]";
+            case "name":
+                return "//*[@name=" + literal + "]";
+            case "className":
+                return "//*[contains(concat(' ', normalize-space(@class), ' '), " + LocalHealer.xpathLiteral(" " + value + " ") + ")]";
+            case "linkText":
+                return "//a[normalize-space()=" + literal + "]";
+            case "partialLinkText":
+                return "//a[contains(., " + literal + ")]";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Locator of the type, given by any name {@link #normalizeType} knows; an unknown type is taken as XPath
+     */
+    static org.openqa.selenium.By create(String type, String value) {
+        String factory = normalizeType(type);
+        switch (factory == null ? "xpath" : factory) {
+            case "id":
+                return org.openqa.selenium.By.id(value);
+            case "name":
+                return org.openqa.selenium.By.name(value);
+            case "cssSelector":
+                return org.openqa.selenium.By.cssSelector(value);
+            case "className":
+                return org.openqa.selenium.By.className(value);
+            case "tagName":
+                return org.openqa.selenium.By.tagName(value);
+            case "linkText":
+                return org.openqa.selenium.By.linkText(value);
+            case "partialLinkText":
+                return org.openqa.selenium.By.partialLinkText(value);
+            default:
+                return org.openqa.selenium.By.xpath(value);
+        }
+    }
+}
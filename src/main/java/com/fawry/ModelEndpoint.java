@@ -0,0 +1,114 @@
+package com.fawry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One model server of the {@link ModelEndpointPool}, with its circuit breaker and latency history.
+ * <p>
+ * The breaker opens after a run of consecutive failures, rejects calls while open, and after the
+ * open period lets a single trial call through (half-open) whose outcome closes or re-opens it.
+ */
+public class ModelEndpoint {
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String url;
+    private final int weight;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    // Guarded by "this"
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public ModelEndpoint(String url, int weight, int failureThreshold, long openMillis) {
+        this.url = url;
+        this.weight = Math.max(1, weight);
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Reserve a call on this endpoint; false while the breaker is open or its half-open trial is running
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMillis) return false;
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) return false;
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    synchronized boolean isAvailable() {
+        if (state == State.OPEN) return System.currentTimeMillis() - openedAt >= openMillis;
+        return state == State.CLOSED || !trialInFlight;
+    }
+
+    void recordSuccess(long millis) {
+        latency.record(millis);
+        successes.incrementAndGet();
+        synchronized (this) {
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            trialInFlight = false;
+        }
+    }
+
+    void recordFailure() {
+        failures.incrementAndGet();
+        synchronized (this) {
+            consecutiveFailures++;
+            trialInFlight = false;
+            if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * A call abandoned on purpose (lost a hedge race) says nothing about the endpoint's health
+     */
+    synchronized void release() {
+        trialInFlight = false;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public long getSuccessCount() {
+        return successes.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return url + " [" + getState() + ", weight " + weight + ", ok " + successes.get()
+                + ", failed " + failures.get() + ", " + latency + "]";
+    }
+}
@@ -0,0 +1,109 @@
+package com.fawry;
+
+import com.fawry.utilities.Log;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Weighted set of model servers that AIIntegrationService spreads heals over.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.ai.endpoints - comma separated url|weight list (default healing.ai.url with weight 1)</li>
+ *     <li>healing.ai.breaker.failures - consecutive failures that open an endpoint's breaker (default 3)</li>
+ *     <li>healing.ai.breaker.openFor - how long an open breaker rejects calls, in ms (default 30000)</li>
+ * </ul>
+ */
+public class ModelEndpointPool {
+    private static volatile ModelEndpointPool defaultPool;
+
+    private final List<ModelEndpoint> endpoints;
+
+    public ModelEndpointPool(List<ModelEndpoint> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one model endpoint is required");
+        }
+        this.endpoints = List.copyOf(endpoints);
+    }
+
+    public static ModelEndpointPool getDefault() {
+        if (defaultPool == null) {
+            synchronized (ModelEndpointPool.class) {
+                if (defaultPool == null) {
+                    defaultPool = fromConfig(HealingConfig.get("healing.ai.endpoints",
+                            HealingConfig.get("healing.ai.url", AIIntegrationService.QWENMOE_API_URL)));
+                }
+            }
+        }
+        return defaultPool;
+    }
+
+    static ModelEndpointPool fromConfig(String spec) {
+        int failureThreshold = HealingConfig.getInt("healing.ai.breaker.failures", 3);
+        long openMillis = HealingConfig.getLong("healing.ai.breaker.openFor", 30_000);
+        List<ModelEndpoint> endpoints = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) continue;
+            String[] parts = entry.trim().split("\\|");
+            int weight = parts.length > 1 ? parseWeight(parts[0].trim(), parts[1].trim()) : 1;
+            endpoints.add(new ModelEndpoint(parts[0].trim(), weight, failureThreshold, openMillis));
+        }
+        return new ModelEndpointPool(endpoints);
+    }
+
+    private static int parseWeight(String url, String weight) {
+        try {
+            int value = Integer.parseInt(weight);
+            if (value > 0) return value;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        Log.warning("Invalid weight '" + weight + "' for model endpoint " + url + ", using 1");
+        return 1;
+    }
+
+    /**
+     * Weighted random pick among endpoints whose breaker lets a call through, skipping the excluded ones.
+     * The returned endpoint is reserved; report the outcome through recordSuccess/recordFailure/release.
+     */
+    ModelEndpoint acquire(Collection<ModelEndpoint> excluded) {
+        List<ModelEndpoint> candidates = new ArrayList<>();
+        int totalWeight = 0;
+        for (ModelEndpoint endpoint : endpoints) {
+            if (!excluded.contains(endpoint) && endpoint.isAvailable()) {
+                candidates.add(endpoint);
+                totalWeight += endpoint.getWeight();
+            }
+        }
+        while (!candidates.isEmpty()) {
+            int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+            ModelEndpoint chosen = null;
+            for (ModelEndpoint candidate : candidates) {
+                pick -= candidate.getWeight();
+                if (pick < 0) {
+                    chosen = candidate;
+                    break;
+                }
+            }
+            if (chosen.tryAcquire()) return chosen;
+            candidates.remove(chosen);
+            totalWeight -= chosen.getWeight();
+        }
+        return null;
+    }
+
+    /**
+     * Health and latency of every endpoint, for sizing the model cluster
+     */
+    public List<ModelEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        endpoints.forEach(endpoint -> summary.append(endpoint).append('\n'));
+        return summary.toString();
+    }
+}
@@ -0,0 +1,151 @@
+package com.fawry;
+
+import com.fawry.utilities.Log;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Remembers locators that could not be healed on a given page, so later lookups fail at once
+ * instead of paying the full wait and another model call to fail again.
+ * <p>
+ * Bounded (least recently used locators are evicted first) and time limited.
+ * Call {@link #invalidateAll()} after redeploying the application under test.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.negativeCache.enabled - remember failed heals (default true)</li>
+ *     <li>healing.negativeCache.maxSize - most locators kept (default 1000)</li>
+ *     <li>healing.negativeCache.ttl - how long a failure is remembered, in ms (default 10 minutes)</li>
+ * </ul>
+ */
+public class NegativeHealCache {
+    private static final NegativeHealCache DEFAULT = new NegativeHealCache(
+            HealingConfig.getBoolean("healing.negativeCache.enabled", true),
+            HealingConfig.getInt("healing.negativeCache.maxSize", 1000),
+            HealingConfig.getDuration("healing.negativeCache.ttl", Duration.ofMinutes(10)));
+
+    private final boolean enabled;
+    private final Duration ttl;
+    // locator -> page fingerprint -> failure, least recently used locator first
+    private final Map<String, Map<String, Entry>> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public NegativeHealCache(boolean enabled, int maxSize, Duration ttl) {
+        this.enabled = enabled;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Entry>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static NegativeHealCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * True when healing this locator on this page already failed recently.
+     * The page fingerprint is only computed when the locator has failed before.
+     */
+    public boolean isKnownFailure(String locatorKey, Supplier<String> pageFingerprint) {
+        if (!enabled) return false;
+        synchronized (entries) {
+            if (!entries.containsKey(locatorKey)) {
+                return false;
+            }
+        }
+        String page = pageFingerprint.get();
+        synchronized (entries) {
+            Map<String, Entry> pages = entries.get(locatorKey);
+            Entry entry = pages == null ? null : pages.get(page);
+            if (entry == null || entry.expiresAt <= System.currentTimeMillis()) {
+                if (entry != null) {
+                    pages.remove(page);
+                    if (pages.isEmpty()) entries.remove(locatorKey);
+                }
+                misses.incrementAndGet();
+                return false;
+            }
+            entry.hits++;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    public void recordFailure(String locatorKey, String pageFingerprint) {
+        if (!enabled) return;
+        synchronized (entries) {
+            entries.computeIfAbsent(locatorKey, key -> new HashMap<>())
+                    .put(pageFingerprint, new Entry(System.currentTimeMillis() + ttl.toMillis()));
+        }
+    }
+
+    /**
+     * Forget the failures of one locator on every page
+     */
+    public void invalidate(String locatorKey) {
+        synchronized (entries) {
+            entries.remove(locatorKey);
+        }
+    }
+
+    /**
+     * Forget every failure, e.g. once a new build of the application is deployed
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        Log.info("🧹 Cleared negative heal cache");
+    }
+
+    /**
+     * Lookups that were short-circuited because the heal was known to fail
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Lookups of previously failed locators that had to go through healing again (other page or expired)
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+
+    /**
+     * Short-circuited lookups per locator, most frequent first
+     */
+    public Map<String, Long> getHitCountsByLocator() {
+        List<Map.Entry<String, Long>> counts = new ArrayList<>();
+        synchronized (entries) {
+            entries.forEach((locatorKey, pages) -> counts.add(
+                    Map.entry(locatorKey, pages.values().stream().mapToLong(entry -> entry.hits).sum())));
+        }
+        counts.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> result = new LinkedHashMap<>();
+        counts.forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+        return result;
+    }
+
+    private static final class Entry {
+        final long expiresAt;
+        long hits;
+
+        Entry(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+    }
+}
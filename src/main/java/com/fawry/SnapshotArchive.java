@@ -0,0 +1,404 @@
+package com.fawry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fawry.utilities.Log;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the pages healing ran on, for debugging heals after the run.
+ * <p>
+ * Pages are stored gzipped under the SHA-256 of their HTML (objects/ab/abcd….html.gz), so a page
+ * captured by many heals is stored once. Every capture appends a line to index.jsonl with its heal
+ * event id, the locators being healed, the page and the hash, which is what {@link #findByLocator}
+ * and {@link #findByEvent} search. Writing, hashing and compressing happen on a background thread.
+ * Retention runs there too: pages older than the maximum age go first, then the oldest until the
+ * archive fits its size limit. The index drops the lines of removed pages and of captures past the
+ * maximum age, and keeps at most its line limit, newest first. Several JVMs can share
+ * the directory; storing a page, indexing it and retention all run under one lock file, so retention
+ * never removes a page between another JVM finding it archived and indexing it.
+ * <p>
+ * Settings (archiving itself is switched on with healing.snapshots.enabled, see {@link HtmlGenerator}):
+ * <ul>
+ *     <li>healing.snapshots.dir - archive directory (default html_snapshots)</li>
+ *     <li>healing.snapshots.maxBytes - compressed size kept, in bytes (default 268435456)</li>
+ *     <li>healing.snapshots.maxAge - age after which a page is removed, in ms (default 7 days)</li>
+ *     <li>healing.snapshots.retentionInterval - how often retention runs, in ms (default 600000)</li>
+ *     <li>healing.snapshots.maxIndexLines - captures kept in the index (default 10000)</li>
+ * </ul>
+ */
+public class SnapshotArchive {
+    private static final DateTimeFormatter EVENT_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private static final AtomicLong EVENT_SEQUENCE = new AtomicLong();
+    private static volatile SnapshotArchive defaultArchive;
+
+    private final Path directory;
+    private final Path objects;
+    private final Path index;
+    private final Path lockFile;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final int maxIndexLines;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ScheduledExecutorService writer;
+
+    public SnapshotArchive(Path directory, long maxBytes, Duration maxAge, Duration retentionInterval) {
+        this(directory, maxBytes, maxAge, retentionInterval, 10_000);
+    }
+
+    public SnapshotArchive(Path directory, long maxBytes, Duration maxAge, Duration retentionInterval, int maxIndexLines) {
+        this.directory = directory.toAbsolutePath();
+        this.objects = this.directory.resolve("objects");
+        this.index = this.directory.resolve("index.jsonl");
+        this.lockFile = this.directory.resolve("index.lock");
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.maxIndexLines = maxIndexLines;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, retentionInterval.toMillis());
+        writer.scheduleWithFixedDelay(this::applyRetention, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public static SnapshotArchive getDefault() {
+        if (defaultArchive == null) {
+            synchronized (SnapshotArchive.class) {
+                if (defaultArchive == null) {
+                    defaultArchive = new SnapshotArchive(
+                            Paths.get(HealingConfig.get("healing.snapshots.dir", "html_snapshots")),
+                            HealingConfig.getLong("healing.snapshots.maxBytes", 256L * 1024 * 1024),
+                            HealingConfig.getDuration("healing.snapshots.maxAge", Duration.ofDays(7)),
+                            HealingConfig.getDuration("healing.snapshots.retentionInterval", Duration.ofMinutes(10)),
+                            HealingConfig.getInt("healing.snapshots.maxIndexLines", 10_000));
+                }
+            }
+        }
+        return defaultArchive;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Archive a page in the background
+     *
+     * @return the heal event id the page is indexed under
+     */
+    public String archiveAsync(String html, Collection<String> locators, String page) {
+        return archiveAsync(() -> html, locators, page);
+    }
+
+    /**
+     * Archive a page in the background, serializing it there too
+     *
+     * @return the heal event id the page is indexed under
+     */
+    public String archiveAsync(Supplier<String> html, Collection<String> locators, String page) {
+        String event = LocalDateTime.now().format(EVENT_FORMAT) + "-" + EVENT_SEQUENCE.incrementAndGet();
+        List<String> locatorList = List.copyOf(locators);
+        long time = System.currentTimeMillis();
+        writer.execute(() -> {
+            try {
+                archive(event, time, html.get(), locatorList, page);
+            } catch (IOException e) {
+                Log.error("Failed to archive HTML snapshot " + event, e);
+            }
+        });
+        return event;
+    }
+
+    private synchronized void archive(String event, long time, String html, List<String> locators, String page) throws IOException {
+        byte[] content = html.getBytes(StandardCharsets.UTF_8);
+        String hash = sha256(content);
+        Path object = objectPath(hash);
+        ObjectNode line = mapper.createObjectNode();
+        line.put("event", event);
+        line.put("time", time);
+        line.put("hash", hash);
+        line.put("page", page == null ? "" : page);
+        line.put("bytes", content.length);
+        locators.forEach(line.putArray("locators")::add);
+
+        boolean stored = withLock(() -> {
+            boolean created = false;
+            if (Files.exists(object)) {
+                // Referenced again: keep it as long as a new one
+                Files.setLastModifiedTime(object, FileTime.fromMillis(time));
+            } else {
+                Files.createDirectories(object.getParent());
+                Path temp = Files.createTempFile(object.getParent(), hash, ".tmp");
+                try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    out.write(content);
+                }
+                Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+                created = true;
+            }
+            Files.writeString(index, mapper.writeValueAsString(line) + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            return created;
+        });
+        Log.info("📸 Archived snapshot of heal event " + event + (stored ? "" : " (page already archived)") + ": " + hash);
+    }
+
+    /**
+     * Snapshots taken while healing the locator, newest first
+     */
+    public List<Entry> findByLocator(String locatorKey) {
+        return readIndex().stream().filter(entry -> entry.getLocators().contains(locatorKey))
+                .sorted(Comparator.comparingLong(Entry::getTime).reversed()).collect(Collectors.toList());
+    }
+
+    /**
+     * Snapshot of a heal event, as logged when it was archived
+     */
+    public Optional<Entry> findByEvent(String event) {
+        return readIndex().stream().filter(entry -> entry.getEvent().equals(event)).findFirst();
+    }
+
+    public Optional<Entry> latest() {
+        return readIndex().stream().max(Comparator.comparingLong(Entry::getTime));
+    }
+
+    /**
+     * HTML of an archived page, or empty when retention removed it
+     */
+    public Optional<String> read(Entry entry) {
+        Path object = objectPath(entry.getHash());
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(object)))) {
+            return Optional.of(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            Log.error("Unreadable archived snapshot " + object, e);
+            return Optional.empty();
+        }
+    }
+
+    private List<Entry> readIndex() {
+        if (!Files.exists(index)) return List.of();
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry = parse(line);
+                if (entry != null) entries.add(entry);
+            }
+        } catch (IOException e) {
+            Log.error("Failed to read snapshot index " + index, e);
+        }
+        return entries;
+    }
+
+    private Entry parse(String line) {
+        if (line.isBlank()) return null;
+        try {
+            JsonNode node = mapper.readTree(line);
+            List<String> locators = new ArrayList<>();
+            node.path("locators").forEach(locator -> locators.add(locator.asText()));
+            return new Entry(node.path("event").asText(), node.path("time").asLong(), node.path("hash").asText(),
+                    node.path("page").asText(), node.path("bytes").asLong(), locators);
+        } catch (IOException e) {
+            // A line cut short by a crash
+            return null;
+        }
+    }
+
+    /**
+     * Remove pages past the maximum age, then the oldest until the archive fits, then trim the index
+     */
+    synchronized void applyRetention() {
+        if (!Files.isDirectory(objects) && !Files.exists(index)) return;
+        try {
+            withLock(this::applyRetentionLocked);
+        } catch (IOException e) {
+            Log.error("Failed to apply snapshot retention in " + directory, e);
+        }
+    }
+
+    private Void applyRetentionLocked() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(objects)) {
+            try (Stream<Path> walk = Files.walk(objects)) {
+                walk.filter(path -> path.toString().endsWith(".html.gz")).forEach(files::add);
+            }
+        }
+        Map<Path, FileTime> modified = new HashMap<>();
+        long total = 0;
+        for (Path file : files) {
+            modified.put(file, Files.getLastModifiedTime(file));
+            total += Files.size(file);
+        }
+        files.sort(Comparator.comparing(modified::get));
+
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        Set<String> removed = new HashSet<>();
+        for (Path file : files) {
+            boolean expired = modified.get(file).toMillis() < cutoff;
+            if (!expired && total <= maxBytes) break;
+            long size = Files.size(file);
+            Files.deleteIfExists(file);
+            total -= size;
+            String name = file.getFileName().toString();
+            removed.add(name.substring(0, name.length() - ".html.gz".length()));
+        }
+        if (!removed.isEmpty()) {
+            Log.info("🧹 Removed " + removed.size() + " archived snapshots, " + total + " bytes kept");
+        }
+        trimIndex(removed, cutoff);
+        return null;
+    }
+
+    /**
+     * Drop index lines of removed pages and of captures before the cutoff, then all but the newest maxIndexLines
+     */
+    private void trimIndex(Set<String> removedHashes, long cutoff) throws IOException {
+        if (!Files.exists(index)) return;
+        List<String> lines = Files.readAllLines(index, StandardCharsets.UTF_8);
+        List<String> kept = new ArrayList<>();
+        for (String line : lines) {
+            Entry entry = parse(line);
+            if (entry != null && !removedHashes.contains(entry.getHash()) && entry.getTime() >= cutoff) kept.add(line);
+        }
+        // Lines are appended as captures happen, so the newest are last
+        if (kept.size() > maxIndexLines) {
+            kept = kept.subList(kept.size() - maxIndexLines, kept.size());
+        }
+        if (kept.size() == lines.size()) return;
+        Log.info("🧹 Trimmed snapshot index: " + lines.size() + " -> " + kept.size() + " lines");
+        Path temp = Files.createTempFile(directory, "index", ".tmp");
+        Files.write(temp, kept, StandardCharsets.UTF_8);
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove every archived page and the index
+     */
+    public synchronized void clear() {
+        try {
+            withLock(() -> {
+                if (Files.isDirectory(objects)) {
+                    try (Stream<Path> walk = Files.walk(objects)) {
+                        for (Path file : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+                return Files.deleteIfExists(index);
+            });
+        } catch (IOException e) {
+            Log.error("Failed to clear snapshot archive " + directory, e);
+        }
+    }
+
+    private Path objectPath(String hash) {
+        return objects.resolve(hash.substring(0, 2)).resolve(hash + ".html.gz");
+    }
+
+    /**
+     * Work on the archive directory that must not interleave with other JVMs sharing it
+     */
+    @FunctionalInterface
+    private interface LockedWork<T> {
+        T run() throws IOException;
+    }
+
+    private <T> T withLock(LockedWork<T> work) throws IOException {
+        Files.createDirectories(directory);
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.lock();
+            try {
+                return work.run();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * One archived capture: a heal event and the page it ran on
+     */
+    public static final class Entry {
+        private final String event;
+        private final long time;
+        private final String hash;
+        private final String page;
+        private final long bytes;
+        private final List<String> locators;
+
+        Entry(String event, long time, String hash, String page, long bytes, List<String> locators) {
+            this.event = event;
+            this.time = time;
+            this.hash = hash;
+            this.page = page;
+            this.bytes = bytes;
+            this.locators = locators;
+        }
+
+        public String getEvent() {
+            return event;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public String getPage() {
+            return page;
+        }
+
+        /**
+         * Uncompressed size of the page
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public List<String> getLocators() {
+            return locators;
+        }
+
+        @Override
+        public String toString() {
+            return event + " " + Instant.ofEpochMilli(time) + " " + locators + " on " + page + " -> " + hash;
+        }
+    }
+}
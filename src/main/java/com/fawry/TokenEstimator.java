@@ -0,0 +1,32 @@
+package com.fawry;
+
+/**
+ * Cheap prompt-size estimate used to budget what we send to the model.
+ * Markup tokenizes at roughly four characters per token on the Qwen/LLaMA family tokenizers,
+ * which is accurate enough for sizing without shipping a tokenizer.
+ */
+public final class TokenEstimator {
+    private static final double CHARS_PER_TOKEN = 4.0;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null || text.length() == 0) return 0;
+        return estimate(text.length());
+    }
+
+    /**
+     * Estimate for a text of this many characters
+     */
+    public static int estimate(int chars) {
+        return (int) Math.ceil(chars / CHARS_PER_TOKEN);
+    }
+
+    /**
+     * Longest text (in chars) that stays under the given token budget
+     */
+    public static int maxChars(int tokens) {
+        return (int) (tokens * CHARS_PER_TOKEN);
+    }
+}
@@ -0,0 +1,131 @@
+package com.fawry;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Learns how long each locator normally takes to appear and derives how long By should wait
+ * before it declares the locator broken and starts healing.
+ * <p>
+ * The budget is p99 of the observed appearance times multiplied by a safety factor, kept between
+ * a floor and a ceiling. Until enough samples exist the ceiling (the old fixed 10 seconds) is used,
+ * and so it is again after a wait that timed out, until the locator is next found in time.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.wait.adaptive - derive budgets from history (default true)</li>
+ *     <li>healing.wait.factor - multiplier applied to p99 (default 3)</li>
+ *     <li>healing.wait.floor - shortest budget in ms (default 3000)</li>
+ *     <li>healing.wait.ceiling - longest budget in ms (default 10000)</li>
+ *     <li>healing.wait.minSamples - samples needed before adapting (default 5)</li>
+ *     <li>healing.wait.postHeal - wait for a freshly healed locator in ms (default 2000)</li>
+ * </ul>
+ */
+public class WaitBudget {
+    private static final WaitBudget DEFAULT = new WaitBudget(
+            HealingConfig.getBoolean("healing.wait.adaptive", true),
+            HealingConfig.getDouble("healing.wait.factor", 3.0),
+            HealingConfig.getDuration("healing.wait.floor", Duration.ofSeconds(3)),
+            HealingConfig.getDuration("healing.wait.ceiling", Duration.ofSeconds(10)),
+            HealingConfig.getInt("healing.wait.minSamples", 5),
+            HealingConfig.getDuration("healing.wait.postHeal", Duration.ofSeconds(2)));
+
+    private final boolean adaptive;
+    private final double factor;
+    private final Duration floor;
+    private final Duration ceiling;
+    private final int minSamples;
+    private final Duration postHeal;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    public WaitBudget(boolean adaptive, double factor, Duration floor, Duration ceiling, int minSamples, Duration postHeal) {
+        this.adaptive = adaptive;
+        this.factor = factor;
+        this.floor = floor;
+        this.ceiling = ceiling;
+        this.minSamples = minSamples;
+        this.postHeal = postHeal;
+    }
+
+    public static WaitBudget getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * How long to wait for the locator before healing it
+     */
+    public Duration budgetFor(String locatorKey) {
+        Stats locatorStats = stats.get(locatorKey);
+        if (!adaptive || locatorStats == null || locatorStats.appearances.getCount() < minSamples
+                || locatorStats.missed) {
+            return ceiling;
+        }
+        long budgetMs = (long) (locatorStats.appearances.getPercentileMillis(99) * factor);
+        return Duration.ofMillis(Math.max(floor.toMillis(), Math.min(ceiling.toMillis(), budgetMs)));
+    }
+
+    /**
+     * How long to wait for a locator that was just healed against the current page
+     */
+    public Duration postHealBudget() {
+        return postHeal;
+    }
+
+    public void recordAppearance(String locatorKey, long millis) {
+        Stats locatorStats = stats.computeIfAbsent(locatorKey, key -> new Stats());
+        locatorStats.appearances.record(millis);
+        locatorStats.missed = false;
+    }
+
+    public void recordTimeout(String locatorKey, long millis) {
+        Stats locatorStats = stats.computeIfAbsent(locatorKey, key -> new Stats());
+        locatorStats.timeouts.incrementAndGet();
+        locatorStats.timeoutMillis.addAndGet(millis);
+        locatorStats.missed = true;
+    }
+
+    public Stats getStats(String locatorKey) {
+        return stats.get(locatorKey);
+    }
+
+    /**
+     * Locators ordered by total time spent waiting for them, most expensive first
+     */
+    public Map<String, Stats> getStatsByTotalWait() {
+        List<Map.Entry<String, Stats>> sorted = new ArrayList<>(stats.entrySet());
+        sorted.sort(Comparator.comparingLong((Map.Entry<String, Stats> entry) -> entry.getValue().getTotalWaitMillis()).reversed());
+        Map<String, Stats> result = new LinkedHashMap<>();
+        sorted.forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+        return result;
+    }
+
+    public static final class Stats {
+        private final LatencyHistogram appearances = new LatencyHistogram();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong timeoutMillis = new AtomicLong();
+        // The last wait timed out: wait the ceiling until the locator shows up in time again
+        private volatile boolean missed;
+
+        public LatencyHistogram getAppearances() {
+            return appearances;
+        }
+
+        public long getTimeouts() {
+            return timeouts.get();
+        }
+
+        /**
+         * Time spent waiting on this locator, found or not
+         */
+        public long getTotalWaitMillis() {
+            return appearances.getTotalMillis() + timeoutMillis.get();
+        }
+
+        @Override
+        public String toString() {
+            return appearances + " timeouts=" + timeouts.get() + " totalWait=" + getTotalWaitMillis() + "ms";
+        }
+    }
+}
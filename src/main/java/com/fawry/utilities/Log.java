@@ -1,60 +1,259 @@
 package com.fawry.utilities;
 
-import java.util.logging.*;
+import org.apache.logging.log4j.LogManager;
 
-import java.util.logging.*;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
+/**
+ * Logging of the healing library.
+ * <p>
+ * Messages below the level threshold are dropped before they are built: pass a {@link Supplier}
+ * for anything costly (prompts, responses, formatted numbers). Long messages are cut to a maximum
+ * length. Writing happens on a background thread fed by a bounded buffer, so a lookup never waits
+ * on the console; when the buffer is full, debug and info messages are dropped (and counted) while
+ * warnings and errors are written by the caller.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>healing.log.level - DEBUG, INFO, WARNING, ERROR or OFF (default INFO)</li>
+ *     <li>healing.log.maxLength - characters kept of a message, 0 for no limit (default 2000)</li>
+ *     <li>healing.log.async - write on a background thread (default true)</li>
+ *     <li>healing.log.bufferSize - messages waiting to be written before info and debug are dropped (default 8192)</li>
+ *     <li>healing.log.backend - console, or log4j2 to hand messages to the log4j2 logger
+ *     "com.fawry.healing", whose configuration then also decides what is logged (default console)</li>
+ * </ul>
+ */
 public class Log {
 
-    private static final Logger LOGGER = Logger.getLogger(Log.class.getName());
+    public enum Level {
+        DEBUG, INFO, WARNING, ERROR, OFF;
+
+        static Level parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return INFO;
+            }
+        }
+    }
+
+    // Written directly rather than through java.util.logging, whose shutdown hook closes its
+    // handlers while buffered messages may still be flushed
+    private static final PrintStream CONSOLE = System.err;
     private static final String ANSI_RESET = "\u001B[0m";
     private static final String ANSI_LIGHT_GRAY = "\u001B[37m";
     private static final String ANSI_AMBER = "\u001B[33m";
     private static final String ANSI_BRIGHT_ORANGE = "\u001B[38;5;208m";
 
+    private static final Level THRESHOLD = Level.parse(setting("healing.log.level", "INFO"));
+    private static final int MAX_LENGTH = intSetting("healing.log.maxLength", 2000);
+    private static final org.apache.logging.log4j.Logger LOG4J =
+            "log4j2".equalsIgnoreCase(setting("healing.log.backend", "console"))
+                    ? LogManager.getLogger("com.fawry.healing") : null;
+    private static final BlockingQueue<Entry> BUFFER = Boolean.parseBoolean(setting("healing.log.async", "true"))
+            ? new ArrayBlockingQueue<>(Math.max(16, intSetting("healing.log.bufferSize", 8192))) : null;
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final Object WRITE_LOCK = new Object();
+
+    /**
+     * Settings are read the way HealingConfig reads them (system property, then environment
+     * variable), without depending on the core package
+     */
+    private static String setting(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key.toUpperCase(Locale.ROOT).replace('.', '_'));
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    private static int intSetting(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(setting(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 
-    private static void initializeLogger() {
-        LOGGER.setUseParentHandlers(false);
-
-        Handler handler = new ConsoleHandler();
-        handler.setFormatter(new SimpleFormatter() {
-            @Override
-            public String format(LogRecord record) {
-                String color = ANSI_RESET;
-                if (record.getLevel() == Level.SEVERE) {
-                    color = ANSI_BRIGHT_ORANGE;
-                } else if (record.getLevel() == Level.WARNING) {
-                    color = ANSI_AMBER;
-                } else if (record.getLevel() == Level.INFO) {
-                    color = ANSI_LIGHT_GRAY;
+    private static void startWriter() {
+        Thread writer = new Thread(() -> {
+            while (true) {
+                try {
+                    Entry entry = BUFFER.take();
+                    synchronized (WRITE_LOCK) {
+                        writeSafely(entry);
+                        drain();
+                    }
+                } catch (InterruptedException e) {
+                    return;
                 }
-                return color + super.formatMessage(record) + ANSI_RESET + "\n";
             }
-        });
-        handler.setLevel(Level.ALL);
-        LOGGER.addHandler(handler);
+        }, "healing-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "healing-log-flush"));
     }
 
     static {
-        initializeLogger();
+        if (BUFFER != null) {
+            startWriter();
+        }
+    }
+
+    /**
+     * Whether a message at this level would be written, for callers that log in a loop
+     */
+    public static boolean isEnabled(Level level) {
+        if (level.compareTo(THRESHOLD) < 0 || level == Level.OFF) return false;
+        return LOG4J == null || LOG4J.isEnabled(toLog4j(level));
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void debug(Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) log(Level.DEBUG, message.get(), null);
     }
 
     public static void info(String message) {
-        LOGGER.info("INFO: " + message);
+        log(Level.INFO, message, null);
+    }
+
+    public static void info(Supplier<String> message) {
+        if (isEnabled(Level.INFO)) log(Level.INFO, message.get(), null);
     }
 
     public static void warning(String message) {
-        LOGGER.warning("WARNING: " + message);
+        log(Level.WARNING, message, null);
+    }
+
+    public static void warning(Supplier<String> message) {
+        if (isEnabled(Level.WARNING)) log(Level.WARNING, message.get(), null);
     }
 
     public static void error(String message) {
-        LOGGER.severe("ERROR: " + message);
+        log(Level.ERROR, message, null);
     }
 
     public static void error(String message, Exception exception) {
-        LOGGER.severe("ERROR: " + message + " Due to: " + exception.toString());
+        log(Level.ERROR, message, exception);
     }
 
+    /**
+     * Write out everything still buffered
+     */
+    public static void flush() {
+        if (BUFFER == null) return;
+        synchronized (WRITE_LOCK) {
+            drain();
+        }
+    }
 
-}
+    private static void log(Level level, String message, Throwable exception) {
+        if (!isEnabled(level)) return;
+        Entry entry = new Entry(level, truncate(message), exception);
+        if (BUFFER == null) {
+            writeSafely(entry);
+        } else if (!BUFFER.offer(entry)) {
+            if (level.compareTo(Level.WARNING) >= 0) {
+                // Not interleaved with a line the writer thread is printing
+                synchronized (WRITE_LOCK) {
+                    writeSafely(entry);
+                }
+            } else {
+                DROPPED.incrementAndGet();
+            }
+        }
+    }
+
+    private static String truncate(String message) {
+        if (message == null || MAX_LENGTH <= 0 || message.length() <= MAX_LENGTH) return message;
+        return message.substring(0, MAX_LENGTH) + "… [" + (message.length() - MAX_LENGTH) + " more chars]";
+    }
+
+    private static void drain() {
+        List<Entry> batch = new ArrayList<>();
+        while (BUFFER.drainTo(batch, 256) > 0) {
+            batch.forEach(Log::writeSafely);
+            batch.clear();
+        }
+        long dropped = DROPPED.getAndSet(0);
+        if (dropped > 0) {
+            writeSafely(new Entry(Level.WARNING, "Log buffer full, dropped " + dropped + " messages", null));
+        }
+    }
+
+    /**
+     * Write one message; a failing appender or exception toString() loses that message only,
+     * never the writer thread or the caller's lookup
+     */
+    private static void writeSafely(Entry entry) {
+        try {
+            write(entry);
+        } catch (Throwable e) {
+            try {
+                CONSOLE.println("Failed to log a " + entry.level + " message: " + e);
+            } catch (Throwable ignored) {
+                // Nowhere left to report it
+            }
+        }
+    }
 
+    private static void write(Entry entry) {
+        if (LOG4J != null) {
+            LOG4J.log(toLog4j(entry.level), entry.message, entry.exception);
+            return;
+        }
+        String message = entry.exception == null ? entry.message : entry.message + " Due to: " + entry.exception;
+        String line;
+        switch (entry.level) {
+            case DEBUG:
+                line = "DEBUG: " + message;
+                break;
+            case INFO:
+                line = ANSI_LIGHT_GRAY + "INFO: " + message;
+                break;
+            case WARNING:
+                line = ANSI_AMBER + "WARNING: " + message;
+                break;
+            default:
+                line = ANSI_BRIGHT_ORANGE + "ERROR: " + message;
+        }
+        CONSOLE.println(line + ANSI_RESET);
+    }
+
+    private static org.apache.logging.log4j.Level toLog4j(Level level) {
+        switch (level) {
+            case DEBUG:
+                return org.apache.logging.log4j.Level.DEBUG;
+            case INFO:
+                return org.apache.logging.log4j.Level.INFO;
+            case WARNING:
+                return org.apache.logging.log4j.Level.WARN;
+            case ERROR:
+                return org.apache.logging.log4j.Level.ERROR;
+            default:
+                return org.apache.logging.log4j.Level.OFF;
+        }
+    }
+
+    private static final class Entry {
+        final Level level;
+        final String message;
+        final Throwable exception;
+
+        Entry(Level level, String message, Throwable exception) {
+            this.level = level;
+            this.message = message;
+            this.exception = exception;
+        }
+    }
+}